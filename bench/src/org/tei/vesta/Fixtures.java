@@ -0,0 +1,52 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Locates the input files of the benchmarks. The sample ODDs are read from
+ * bench/fixtures, or from the directory given by the vesta.bench.fixtures
+ * property; p5subset.xml is the one Vesta is configured with.
+ */
+final class Fixtures {
+
+	static final String P5SUBSET = "p5subset.xml";
+
+	private Fixtures(){
+	}
+
+	/**
+	 * @param name the name of a file in the fixture directory, or p5subset.xml
+	 * @return the file
+	 */
+	static File get(String name){
+		File file = P5SUBSET.equals(name)
+			? new File(PropertiesProvider.getInstance().getP5Subset())
+			: new File(System.getProperty("vesta.bench.fixtures", "bench/fixtures"), name);
+		if(! file.isFile())
+			throw new IllegalStateException("Missing benchmark fixture: " + file.getAbsolutePath());
+		return file;
+	}
+
+	/**
+	 * @param prefix the prefix of the directory name
+	 * @return a new, empty temporary directory
+	 * @throws IOException if the directory could not be created
+	 */
+	static File createTempDir(String prefix) throws IOException{
+		File dir = File.createTempFile("vesta-bench-" + prefix, "");
+		if(! dir.delete() || ! dir.mkdir())
+			throw new IOException("Could not create temporary directory " + dir);
+		return dir;
+	}
+
+	static void delete(File file){
+		File[] children = file.listFiles();
+		if(null != children){
+			for(File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+}
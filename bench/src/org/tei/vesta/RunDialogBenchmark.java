@@ -0,0 +1,75 @@
+package org.tei.vesta;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast the run dialog takes a burst of messages, as a verbose or
+ * debug run sends them: the lines are appended and shown in one batch. Once the
+ * dialog is full, every batch also drops old lines.
+ *
+ * The dialog is opened on the benchmark thread, which becomes the SWT UI
+ * thread, so the benchmark needs a display.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RunDialogBenchmark {
+
+	@Param({"100", "1000"})
+	public int batchSize;
+
+	@Param({"5000"})
+	public int maxLines;
+
+	private Display display;
+	private Shell shell;
+	private RunDialog dialog;
+	private String[] lines;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		display = Display.getDefault();
+		shell = new Shell(display);
+		// the refresher never runs, since the benchmark does not dispatch events
+		dialog = new RunDialog(shell, SWT.RESIZE | SWT.NO_TRIM | SWT.CLOSE, maxLines, Integer.MAX_VALUE);
+		dialog.open();
+
+		lines = new String[batchSize];
+		for(int i = 0; i < batchSize; i++)
+			lines[i] = "[odd2odd] Message: processing elementSpec " + i + " of module core";
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		shell.dispose();
+		display.dispose();
+	}
+
+	@Benchmark
+	public void appendBatch(){
+		for(String line : lines)
+			dialog.appendLine(line);
+		dialog.flush();
+	}
+
+}
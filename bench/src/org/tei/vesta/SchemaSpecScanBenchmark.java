@@ -0,0 +1,46 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the search for schemaSpecs that the GUI runs whenever an input file
+ * is selected. p5subset.xml stands for a large file that is not an ODD.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SchemaSpecScanBenchmark {
+
+	@Param({"tei_minimal.odd", "tei_two_schemas.odd", "plain.xml", Fixtures.P5SUBSET})
+	public String input;
+
+	private File file;
+
+	@Setup
+	public void setUp(){
+		file = Fixtures.get(input);
+	}
+
+	@Benchmark
+	public List<String> scan() throws Exception {
+		return SchemaSpecScanner.scan(file);
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tei.utils.XMLUtils;
+
+/**
+ * Measures the serialisation of a Saxon tree to disk, which Vesta does for the
+ * compiled ODD, the RELAX NG schema and the documentation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StoreDocumentBenchmark {
+
+	@Param({"tei_customised.odd", Fixtures.P5SUBSET})
+	public String input;
+
+	private XdmNode document;
+	private File outputDir;
+	private File output;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		document = new Processor(false).newDocumentBuilder().build(Fixtures.get(input));
+		outputDir = Fixtures.createTempDir("store");
+		output = new File(outputDir, input);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		Fixtures.delete(outputDir);
+	}
+
+	@Benchmark
+	public void store() throws Exception {
+		XMLUtils.storeDocument(document, output);
+	}
+
+}
@@ -0,0 +1,76 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the translation of a RELAX NG schema to RNC and XSD with Trang. The
+ * schema is generated once per trial from a sample ODD, which needs the TEI
+ * stylesheets Vesta is configured with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrangBenchmark {
+
+	@Param({"tei_minimal.odd", "tei_customised.odd"})
+	public String odd;
+
+	private File outputDir;
+	private File relax;
+	private VestaProcessor proc;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		outputDir = Fixtures.createTempDir("trang");
+
+		ConsoleListener listener = new ConsoleListener(odd);
+		proc = new VestaProcessor(listener);
+		List<String[]> options = new ArrayList<String[]>();
+		options.add(new String[]{"rng", "true"});
+		options.add(new String[]{"xsd", "false"});
+		options.add(new String[]{"dtd", "false"});
+		options.add(new String[]{"incremental", "false"});
+		VestaOptions.configure(proc, Fixtures.get(odd), outputDir, options);
+		proc.run();
+		if(listener.hasFailed())
+			throw new IllegalStateException("Could not generate the RELAX NG schema of " + odd);
+
+		relax = new File(outputDir, proc.getSchemaName() + ".rng");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		Fixtures.delete(outputDir);
+	}
+
+	@Benchmark
+	public void relaxCompact() throws Exception {
+		proc.generateRelaxCompact(relax);
+	}
+
+	@Benchmark
+	public void xsd() throws Exception {
+		proc.generateXSD(relax);
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copies static files such as the CSS of the HTML output into output
+ * directories. A target that already has the content of its source is left
+ * alone, so that runs into the same directory copy every file only once.
+ *
+ * Files are copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * which lets the operating system move the bytes without passing them
+ * through the heap. The copy is written next to the target and renamed, so
+ * that concurrent runs never see a half written file.
+ */
+public class AssetCopier {
+
+	/**
+	 * Copies a file, unless the target has the same content already.
+	 * @param source the file to copy
+	 * @param target the copy
+	 * @return true if the file was copied, false if the target was up to date
+	 * @throws IOException if the file could not be copied
+	 */
+	public static boolean copy(File source, File target) throws IOException{
+		if(target.isFile() && target.length() == source.length()
+				&& ContentHash.ofFile(source).equals(ContentHash.ofFile(target)))
+			return false;
+
+		File dir = target.getAbsoluteFile().getParentFile();
+		if(! dir.isDirectory() && ! dir.mkdirs())
+			throw new IOException("Could not create directory " + dir);
+
+		File temp = File.createTempFile("." + target.getName(), ".tmp", dir);
+		try {
+			FileChannel in = new FileInputStream(source).getChannel();
+			try {
+				FileChannel out = new FileOutputStream(temp).getChannel();
+				try {
+					long size = in.size();
+					for(long position = 0; position < size; )
+						position += in.transferTo(position, size - position, out);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+
+			// File.renameTo does not replace an existing file everywhere
+			if(! temp.renameTo(target) && ! (target.delete() && temp.renameTo(target)))
+				throw new IOException("Could not replace " + target);
+		} finally {
+			temp.delete();
+		}
+		return true;
+	}
+
+	/**
+	 * Copies files from one directory to another, skipping the targets that are
+	 * up to date.
+	 * @param sourceDir the directory to copy from
+	 * @param targetDir the directory to copy to
+	 * @param names the names of the files
+	 * @return the number of files copied
+	 * @throws IOException if a file could not be copied
+	 */
+	public static int copy(File sourceDir, File targetDir, String... names) throws IOException{
+		int copied = 0;
+		for(String name : names){
+			if(copy(new File(sourceDir, name), new File(targetDir, name)))
+				copied++;
+		}
+		return copied;
+	}
+
+}
@@ -0,0 +1,118 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Remembers, per output directory, the fingerprint of the inputs every stage
+ * was last run with. A stage whose fingerprint did not change and whose output
+ * files are still there does not have to run again.
+ *
+ * The manifest is stored as .vesta-manifest.xml in the output directory. Keys
+ * are prefixed with the schema name, so several schemas can share a directory.
+ * Storing a manifest only replaces the entries of its own schema, so that runs
+ * of different schemas into the same directory keep each other's entries.
+ */
+public class BuildManifest {
+
+	public static final String FILE_NAME = ".vesta-manifest.xml";
+
+	private final File file;
+	private final String prefix;
+	private final Properties entries = new Properties();
+
+	/**
+	 * Loads the manifest of a directory. A missing or unreadable manifest is
+	 * treated as empty.
+	 * @param dir the output directory
+	 * @param schemaName the schema the stages are run for
+	 */
+	public BuildManifest(File dir, String schemaName){
+		this.file = new File(dir, FILE_NAME);
+		this.prefix = schemaName + ".";
+		load(file, entries);
+	}
+
+	private static void load(File file, Properties entries){
+		if(file.isFile()){
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					entries.loadFromXML(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * @param stage the stage
+	 * @return true if the stage last ran with the same fingerprint and all its outputs exist
+	 */
+	public synchronized boolean isUpToDate(Stage stage){
+		if(! stage.isIncremental())
+			return false;
+		if(! stage.getFingerprint().equals(entries.getProperty(prefix + stage.getName())))
+			return false;
+		for(File output : stage.getOutputs()){
+			if(! output.exists())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Records that a stage finished successfully.
+	 * @param stage the stage
+	 */
+	public synchronized void record(Stage stage){
+		if(stage.isIncremental())
+			entries.setProperty(prefix + stage.getName(), stage.getFingerprint());
+	}
+
+	/**
+	 * Forgets a stage, e.g. because it is about to overwrite its outputs.
+	 * @param stage the stage
+	 */
+	public synchronized void forget(Stage stage){
+		entries.remove(prefix + stage.getName());
+	}
+
+	/**
+	 * Writes the manifest back to the output directory.
+	 * @throws IOException if the manifest could not be written
+	 */
+	public void store() throws IOException{
+		// manifests of the same directory may be stored concurrently
+		synchronized(BuildManifest.class){
+			Properties merged = new Properties();
+			load(file, merged);
+			for(Object key : merged.keySet().toArray()){
+				if(((String) key).startsWith(prefix))
+					merged.remove(key);
+			}
+			synchronized(this){
+				for(String key : entries.stringPropertyNames()){
+					if(key.startsWith(prefix))
+						merged.setProperty(key, entries.getProperty(key));
+				}
+			}
+			
+			OutputStream out = new FileOutputStream(file);
+			try {
+				merged.storeToXML(out, "Vesta build manifest", "UTF-8");
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+}
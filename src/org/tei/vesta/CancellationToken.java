@@ -0,0 +1,73 @@
+package org.tei.vesta;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tells a running job that it should stop. Cancelling is cooperative: the job
+ * checks the token between its stages and in the callbacks of long
+ * transformations, and the threads that registered with the token are
+ * interrupted so that blocking waits end early. A thread may register more
+ * than once, for instance for the job and for the stages it waits for; it
+ * stays registered until it unregistered as often.
+ */
+public class CancellationToken {
+
+	private boolean cancelled = false;
+	// the registered threads and how often they registered
+	private final Map<Thread, Integer> threads = new HashMap<Thread, Integer>();
+
+	/**
+	 * Requests the job to stop. Calling it more than once has no further effect.
+	 */
+	public synchronized void cancel(){
+		if(cancelled)
+			return;
+		cancelled = true;
+		for(Thread thread : threads.keySet())
+			thread.interrupt();
+	}
+
+	/**
+	 * @return true if the job was asked to stop
+	 */
+	public synchronized boolean isCancelled(){
+		return cancelled;
+	}
+
+	/**
+	 * @throws CancellationException if the job was asked to stop
+	 */
+	public void throwIfCancelled() throws CancellationException{
+		if(isCancelled())
+			throw new CancellationException("The run was cancelled.");
+	}
+
+	/**
+	 * Registers a thread that is interrupted when the job is cancelled. A thread
+	 * registering after the cancellation is interrupted at once.
+	 * @param thread a thread working for the job
+	 */
+	public synchronized void register(Thread thread){
+		Integer count = threads.get(thread);
+		threads.put(thread, null == count ? 1 : count + 1);
+		if(cancelled)
+			thread.interrupt();
+	}
+
+	/**
+	 * Takes back one registration of a thread.
+	 * @param thread a thread that no longer works for the job
+	 */
+	public synchronized void unregister(Thread thread){
+		Integer count = threads.get(thread);
+		if(null == count)
+			return;
+		if(count > 1)
+			threads.put(thread, count - 1);
+		else
+			threads.remove(thread);
+	}
+
+}
@@ -0,0 +1,26 @@
+package org.tei.vesta;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+
+import com.thaiopensource.relaxng.input.parse.sax.SAXParseInputFormat;
+import com.thaiopensource.relaxng.parse.Parseable;
+import com.thaiopensource.relaxng.parse.sax.SAXParseable;
+
+/**
+ * Lets Trang read RELAX NG schemas, the schemas they include and their
+ * entities through the {@link CatalogResolver}.
+ *
+ * Written against Trang 20081028, the version on the build path, where
+ * makeParseable(InputSource, ErrorHandler) is the hook load() parses through
+ * and SAXParseable takes an XMLReaderCreator. Trang 20091111 replaced both
+ * with its own resolver API, so this class has to be adapted when Trang is
+ * upgraded.
+ */
+public class CatalogInputFormat extends SAXParseInputFormat {
+
+	public Parseable makeParseable(InputSource in, ErrorHandler eh) {
+		return new SAXParseable(CatalogResolver.getInstance().getXMLReaderCreator(), in, eh);
+	}
+
+}
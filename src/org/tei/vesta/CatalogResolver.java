@@ -0,0 +1,400 @@
+package org.tei.vesta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import com.thaiopensource.xml.sax.XMLReaderCreator;
+
+/**
+ * Resolves external entities, DTDs, included documents and stylesheets
+ * through OASIS XML catalogs, and keeps resources fetched from the network in
+ * memory, so that every remote resource is read at most once per JVM.
+ *
+ * The catalogs are listed in the catalog.files property, separated by ;. The
+ * entries system, public, uri, rewriteSystem, rewriteURI, systemSuffix,
+ * uriSuffix, group and nextCatalog are supported. Missing catalogs are
+ * ignored.
+ *
+ * With resolver.offline set to true nothing is fetched from the network. A
+ * remote resource has to be mapped to a local one by a catalog; an unmapped
+ * external entity or DTD is replaced by an empty one, an unmapped document or
+ * stylesheet fails at once instead of waiting for a timeout.
+ *
+ * The resolver is used by the parsers Vesta creates: Trang's, see
+ * {@link CatalogInputFormat} and {@link XdmInputFormat}. It is not made the
+ * JAXP default of the JVM, so it does not reach the parses of the TEI library,
+ * which runs its transformations on a Saxon configuration of its own; the
+ * scans of the input that Vesta makes itself do not read the DTD at all, see
+ * {@link SchemaSpecScanner} and {@link IncludeScanner}.
+ */
+public class CatalogResolver implements EntityResolver, URIResolver {
+
+	public static final String CATALOG_NS = "urn:oasis:names:tc:entity:xmlns:xml:catalog";
+
+	private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+	private static CatalogResolver instance;
+
+	private final boolean offline;
+	private final int timeoutMillis;
+	private final long maxCacheBytes;
+
+	// the entries of all catalogs, the first entry for an id wins
+	private final Map<String, String> systemIds = new HashMap<String, String>();
+	private final Map<String, String> publicIds = new HashMap<String, String>();
+	private final Map<String, String> uris = new HashMap<String, String>();
+	// start or suffix and replacement
+	private final List<String[]> systemRewrites = new ArrayList<String[]>();
+	private final List<String[]> systemSuffixes = new ArrayList<String[]>();
+	private final List<String[]> uriRewrites = new ArrayList<String[]>();
+	private final List<String[]> uriSuffixes = new ArrayList<String[]>();
+
+	// remote resources in the order they were last used
+	private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long cacheBytes = 0;
+	private final Set<String> replaced = new HashSet<String>();
+
+	/**
+	 * @param catalogs the catalog files
+	 * @param offline true to never fetch anything from the network
+	 * @param timeoutMillis the time to wait for a connection and for data
+	 * @param maxCacheBytes the size of the remote resources kept in memory
+	 */
+	public CatalogResolver(List<File> catalogs, boolean offline, int timeoutMillis, long maxCacheBytes){
+		this.offline = offline;
+		this.timeoutMillis = timeoutMillis;
+		this.maxCacheBytes = maxCacheBytes;
+
+		Set<String> read = new HashSet<String>();
+		for(File catalog : catalogs)
+			readCatalog(catalog.getAbsoluteFile().toURI().toString(), read);
+	}
+
+	/**
+	 * Provides access to the resolver configured in the properties.
+	 * @return The instance of CatalogResolver.
+	 */
+	public static synchronized CatalogResolver getInstance(){
+		if(null == instance){
+			PropertiesProvider properties = PropertiesProvider.getInstance();
+			List<File> catalogs = new ArrayList<File>();
+			for(String catalog : properties.getCatalogFiles())
+				catalogs.add(new File(catalog));
+			instance = new CatalogResolver(catalogs, properties.isResolverOffline(),
+					properties.getResolverTimeoutSeconds() * 1000,
+					properties.getResolverCacheMegabytes() * 1024L * 1024L);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @return true if nothing is fetched from the network
+	 */
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * @param publicId the public id of an entity, may be null
+	 * @param systemId the system id of an entity, may be null
+	 * @return the uri the catalogs map the entity to, null if they do not
+	 */
+	public String lookupEntity(String publicId, String systemId){
+		if(null != systemId){
+			String mapped = lookup(systemId, systemIds, systemRewrites, systemSuffixes);
+			if(null != mapped)
+				return mapped;
+		}
+		return null == publicId ? null : publicIds.get(publicId);
+	}
+
+	/**
+	 * @param uri the absolute uri of a document or stylesheet
+	 * @return the uri the catalogs map it to, null if they do not
+	 */
+	public String lookupURI(String uri){
+		return lookup(uri, uris, uriRewrites, uriSuffixes);
+	}
+
+	private String lookup(String id, Map<String, String> exact, List<String[]> rewrites, List<String[]> suffixes){
+		String mapped = exact.get(id);
+		if(null != mapped)
+			return mapped;
+
+		// the longest match wins
+		String[] best = null;
+		for(String[] rewrite : rewrites){
+			if(id.startsWith(rewrite[0]) && (null == best || rewrite[0].length() > best[0].length()))
+				best = rewrite;
+		}
+		if(null != best)
+			return best[1] + id.substring(best[0].length());
+
+		for(String[] suffix : suffixes){
+			if(id.endsWith(suffix[0]) && (null == best || suffix[0].length() > best[0].length()))
+				best = suffix;
+		}
+		return null == best ? null : best[1];
+	}
+
+	public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+		String target = lookupEntity(publicId, systemId);
+		if(null == target){
+			if(null == systemId || ! isRemote(systemId))
+				return null;
+			target = systemId;
+			if(offline && ! isCached(target)){
+				warnReplaced(target);
+				InputSource empty = new InputSource(new StringReader(""));
+				empty.setPublicId(publicId);
+				empty.setSystemId(systemId);
+				return empty;
+			}
+		}
+
+		InputSource source = new InputSource(target);
+		source.setPublicId(publicId);
+		if(isRemote(target))
+			source.setByteStream(new ByteArrayInputStream(fetch(target)));
+		return source;
+	}
+
+	public Source resolve(String href, String base) throws TransformerException {
+		String uri = absolute(href, base);
+		String target = lookupURI(uri);
+		if(null == target){
+			if(! isRemote(uri))
+				return null;
+			target = uri;
+		}
+
+		if(! isRemote(target))
+			return new StreamSource(target);
+		try {
+			return new StreamSource(new ByteArrayInputStream(fetch(target)), target);
+		} catch (IOException e) {
+			throw new TransformerException("Could not load " + target + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param next the resolver asked for everything the catalogs do not resolve, may be null
+	 * @return a URI resolver that asks this resolver first
+	 */
+	public URIResolver chain(final URIResolver next){
+		return new URIResolver(){
+			public Source resolve(String href, String base) throws TransformerException {
+				Source source = CatalogResolver.this.resolve(href, base);
+				if(null == source && null != next)
+					return next.resolve(href, base);
+				return source;
+			}
+		};
+	}
+
+	/**
+	 * Maps the document a parser is asked to read through the catalogs.
+	 * @param input the input of a parse
+	 * @return the input to parse instead, the input itself if the catalogs do
+	 * not map it or it comes with its own content
+	 * @throws IOException if a remote document could not be fetched
+	 */
+	public InputSource resolveDocument(InputSource input) throws IOException{
+		if(null != input.getByteStream() || null != input.getCharacterStream() || null == input.getSystemId())
+			return input;
+
+		String target = lookupURI(input.getSystemId());
+		if(null == target){
+			if(! isRemote(input.getSystemId()))
+				return input;
+			target = input.getSystemId();
+		}
+
+		InputSource source = new InputSource(target);
+		source.setPublicId(input.getPublicId());
+		source.setEncoding(input.getEncoding());
+		if(isRemote(target))
+			source.setByteStream(new ByteArrayInputStream(fetch(target)));
+		return source;
+	}
+
+	/**
+	 * @return a creator of namespace aware readers that resolve through this resolver
+	 */
+	public XMLReaderCreator getXMLReaderCreator(){
+		return new XMLReaderCreator(){
+			public XMLReader createXMLReader() throws SAXException {
+				return new CatalogXMLReader(CatalogXMLReader.createParser(), CatalogResolver.this);
+			}
+		};
+	}
+
+	/**
+	 * Reads a remote resource, from memory if it was read before.
+	 * @param uri the uri of the resource
+	 * @return the content
+	 * @throws IOException if the resource could not be read, or is not cached in offline mode
+	 */
+	private byte[] fetch(String uri) throws IOException{
+		synchronized(cache){
+			byte[] content = cache.get(uri);
+			if(null != content)
+				return content;
+		}
+		if(offline)
+			throw new IOException("Vesta runs offline and no catalog maps " + uri);
+
+		URLConnection connection = new URL(uri).openConnection();
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = connection.getInputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			for(int read; -1 != (read = in.read(buffer)); )
+				out.write(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+		byte[] content = out.toByteArray();
+
+		synchronized(cache){
+			if(content.length <= maxCacheBytes && ! cache.containsKey(uri)){
+				cache.put(uri, content);
+				cacheBytes += content.length;
+				for(Iterator<byte[]> it = cache.values().iterator(); cacheBytes > maxCacheBytes && it.hasNext(); ){
+					cacheBytes -= it.next().length;
+					it.remove();
+				}
+			}
+		}
+		return content;
+	}
+
+	private boolean isCached(String uri){
+		synchronized(cache){
+			return cache.containsKey(uri);
+		}
+	}
+
+	private void warnReplaced(String uri){
+		synchronized(replaced){
+			if(replaced.add(uri))
+				System.err.println("Warning: Vesta runs offline, the entity " + uri + " is not mapped by a catalog and is left empty");
+		}
+	}
+
+	private static boolean isRemote(String uri){
+		int colon = uri.indexOf(':');
+		if(colon <= 1)
+			return false;
+		String scheme = uri.substring(0, colon).toLowerCase();
+		return ! scheme.equals("file") && ! scheme.equals("jar");
+	}
+
+	private static String absolute(String href, String base){
+		try {
+			if(null == base || base.length() == 0)
+				return new URI(href).toString();
+			return new URI(base).resolve(new URI(href)).toString();
+		} catch (URISyntaxException e) {
+			return href;
+		} catch (IllegalArgumentException e) {
+			return href;
+		}
+	}
+
+	/**
+	 * Adds the entries of a catalog. A catalog that cannot be read is ignored.
+	 * @param uri the absolute uri of the catalog
+	 * @param read the catalogs read so far, nextCatalog loops are ignored
+	 */
+	private void readCatalog(String uri, Set<String> read){
+		if(! read.add(uri))
+			return;
+		if(uri.startsWith("file:") && ! new File(URI.create(uri)).isFile())
+			return;
+
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			// catalogs often name the DTD of the catalog specification, which is not needed
+			builder.setEntityResolver(new EntityResolver(){
+				public InputSource resolveEntity(String publicId, String systemId) {
+					return new InputSource(new StringReader(""));
+				}
+			});
+			Element root = builder.parse(uri).getDocumentElement();
+			readEntries(root, absolute(root.getAttributeNS(XML_NS, "base"), uri), read);
+		} catch (Exception e) {
+			System.err.println("Warning: Could not read catalog " + uri + ": " + e.getMessage());
+		}
+	}
+
+	private void readEntries(Element parent, String base, Set<String> read){
+		for(Node child = parent.getFirstChild(); null != child; child = child.getNextSibling()){
+			if(child.getNodeType() != Node.ELEMENT_NODE || ! CATALOG_NS.equals(child.getNamespaceURI()))
+				continue;
+			Element entry = (Element) child;
+			String name = entry.getLocalName();
+			String entryBase = entry.hasAttributeNS(XML_NS, "base") ? absolute(entry.getAttributeNS(XML_NS, "base"), base) : base;
+
+			if(name.equals("system"))
+				put(systemIds, entry.getAttribute("systemId"), absolute(entry.getAttribute("uri"), entryBase));
+			else if(name.equals("public"))
+				put(publicIds, entry.getAttribute("publicId"), absolute(entry.getAttribute("uri"), entryBase));
+			else if(name.equals("uri"))
+				put(uris, entry.getAttribute("name"), absolute(entry.getAttribute("uri"), entryBase));
+			else if(name.equals("rewriteSystem"))
+				systemRewrites.add(new String[]{entry.getAttribute("systemIdStartString"), absolute(entry.getAttribute("rewritePrefix"), entryBase)});
+			else if(name.equals("rewriteURI"))
+				uriRewrites.add(new String[]{entry.getAttribute("uriStartString"), absolute(entry.getAttribute("rewritePrefix"), entryBase)});
+			else if(name.equals("systemSuffix"))
+				systemSuffixes.add(new String[]{entry.getAttribute("systemIdSuffix"), absolute(entry.getAttribute("uri"), entryBase)});
+			else if(name.equals("uriSuffix"))
+				uriSuffixes.add(new String[]{entry.getAttribute("uriSuffix"), absolute(entry.getAttribute("uri"), entryBase)});
+			else if(name.equals("group"))
+				readEntries(entry, entryBase, read);
+			else if(name.equals("nextCatalog"))
+				readCatalog(absolute(entry.getAttribute("catalog"), entryBase), read);
+		}
+	}
+
+	private static void put(Map<String, String> entries, String id, String uri){
+		if(! entries.containsKey(id))
+			entries.put(id, uri);
+	}
+
+}
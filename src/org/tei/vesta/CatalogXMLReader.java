@@ -0,0 +1,66 @@
+package org.tei.vesta;
+
+import java.io.IOException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * A parser that reads documents and their external entities through the
+ * {@link CatalogResolver}. Entities the catalogs do not resolve are passed to
+ * the entity resolver set by the application.
+ */
+public class CatalogXMLReader extends XMLFilterImpl {
+
+	private final CatalogResolver resolver;
+
+	/**
+	 * Creates a namespace aware parser with the shared resolver.
+	 */
+	public CatalogXMLReader(){
+		this(createParser(), CatalogResolver.getInstance());
+	}
+
+	/**
+	 * @param parent the parser to read with
+	 * @param resolver the resolver
+	 */
+	public CatalogXMLReader(XMLReader parent, CatalogResolver resolver){
+		super(parent);
+		this.resolver = resolver;
+	}
+
+	public void parse(InputSource input) throws SAXException, IOException {
+		super.parse(resolver.resolveDocument(input));
+	}
+
+	public void parse(String systemId) throws SAXException, IOException {
+		parse(new InputSource(systemId));
+	}
+
+	public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+		InputSource source = resolver.resolveEntity(publicId, systemId);
+		return null != source ? source : super.resolveEntity(publicId, systemId);
+	}
+
+	/**
+	 * @return a namespace aware parser that does not resolve through the catalogs
+	 */
+	static XMLReader createParser(){
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			return factory.newSAXParser().getXMLReader();
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException("Could not create a parser: " + e.getMessage());
+		} catch (SAXException e) {
+			throw new IllegalStateException("Could not create a parser: " + e.getMessage());
+		}
+	}
+
+}
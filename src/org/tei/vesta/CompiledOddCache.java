@@ -0,0 +1,135 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.tei.tei.TEI;
+
+/**
+ * Keeps compiled ODDs on disk across runs, so that odd2odd, the most
+ * expensive stage, only runs for inputs that changed. An entry is keyed by a
+ * {@link ContentHash} of everything odd2odd depends on: the ODD, the
+ * p5subset, the stylesheets and the options of the compilation.
+ *
+ * The cache is limited in size. Reading an entry marks it as used; when the
+ * entries exceed the limit, the ones used longest ago are removed. Entries are
+ * written to a temporary file and renamed, so that several JVMs can share a
+ * cache directory.
+ */
+public class CompiledOddCache {
+
+	private static final String SUFFIX = ".compiled.odd";
+
+	private static CompiledOddCache instance;
+
+	private final File dir;
+	private final long maxBytes;
+
+	/**
+	 * @param dir the directory the entries are kept in
+	 * @param maxBytes the size of all entries, 0 to disable the cache
+	 */
+	public CompiledOddCache(File dir, long maxBytes){
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Provides access to the cache configured in the properties.
+	 * @return The instance of CompiledOddCache.
+	 */
+	public static synchronized CompiledOddCache getInstance(){
+		if(null == instance){
+			PropertiesProvider properties = PropertiesProvider.getInstance();
+			instance = new CompiledOddCache(new File(properties.getOddCacheDir()),
+					properties.getOddCacheMaxMegabytes() * 1024L * 1024L);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @return true if compiled ODDs are cached
+	 */
+	public boolean isEnabled(){
+		return maxBytes > 0;
+	}
+
+	/**
+	 * Loads a compiled ODD. An entry that cannot be read is removed.
+	 * @param key the hash of the inputs of odd2odd
+	 * @return the compiled ODD, null if it is not cached
+	 */
+	public TEI get(String key){
+		if(! isEnabled())
+			return null;
+		File file = new File(dir, key + SUFFIX);
+		if(! file.isFile())
+			return null;
+		try {
+			TEI odd = new TEI(file);
+			file.setLastModified(System.currentTimeMillis());
+			return odd;
+		} catch (Exception e) {
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a compiled ODD and removes the entries used longest ago if the
+	 * cache got too large.
+	 * @param key the hash of the inputs of odd2odd
+	 * @param odd the compiled ODD
+	 * @throws IOException if the entry could not be written
+	 */
+	public void put(String key, TEI odd) throws IOException{
+		if(! isEnabled())
+			return;
+		if(! dir.isDirectory() && ! dir.mkdirs())
+			throw new IOException("Could not create directory " + dir);
+
+		File file = new File(dir, key + SUFFIX);
+		File temp = File.createTempFile("." + key, ".tmp", dir);
+		try {
+			odd.storeFile(temp);
+			if(! temp.renameTo(file) && ! (file.delete() && temp.renameTo(file)))
+				throw new IOException("Could not store " + file);
+		} finally {
+			temp.delete();
+		}
+		evict();
+	}
+
+	private synchronized void evict(){
+		File[] entries = dir.listFiles();
+		if(null == entries)
+			return;
+		long size = 0;
+		for(File entry : entries)
+			size += entry.length();
+		if(size <= maxBytes)
+			return;
+
+		Arrays.sort(entries, new Comparator<File>(){
+			public int compare(File f1, File f2) {
+				long m1 = f1.lastModified();
+				long m2 = f2.lastModified();
+				return m1 < m2 ? -1 : m1 == m2 ? 0 : 1;
+			}
+		});
+		for(File entry : entries){
+			if(size <= maxBytes)
+				break;
+			// the temporary files of concurrent puts are left alone
+			if(! entry.getName().endsWith(SUFFIX))
+				continue;
+			long length = entry.length();
+			if(entry.delete())
+				size -= length;
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.tei.vesta;
+
+import java.io.PrintStream;
+
+/**
+ * Prints the progress of a {@link VestaProcessor} to the console. Every line is
+ * prefixed with the name of the job so that the output of concurrent jobs can
+ * be told apart.
+ */
+public class ConsoleListener implements ProcessListener {
+
+	private final String prefix;
+	private final PrintStream out;
+	private volatile boolean failed = false;
+	
+	public ConsoleListener(String name){
+		this(name, System.out);
+	}
+	
+	public ConsoleListener(String name, PrintStream out){
+		this.prefix = "[" + name + "] ";
+		this.out = out;
+	}
+	
+	public void processingStarted(VestaProcessor proc) {
+		out.println(prefix + "Start processing " + proc.getOddFile());
+	}
+
+	public void info(String text) {
+		out.println(prefix + text);
+	}
+
+	public void processingFinished(VestaProcessor proc) {
+		out.println(prefix + "Done");
+	}
+
+	public void processingFailed(VestaProcessor proc, Exception e) {
+		failed = true;
+		System.err.println(prefix + "Errors occured while processing " + proc.getOddFile() + ": " + e.getMessage());
+	}
+	
+	public void processingCancelled(VestaProcessor proc) {
+		failed = true;
+		System.err.println(prefix + "Cancelled processing " + proc.getOddFile());
+	}
+	
+	/**
+	 * @return true if the job this listener was attached to failed
+	 */
+	public boolean hasFailed(){
+		return failed;
+	}
+
+}
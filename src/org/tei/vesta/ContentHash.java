@@ -0,0 +1,133 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SHA-1 hashes of files, directories and option values, used to tell whether
+ * the inputs of a stage changed since the last run.
+ *
+ * File hashes are remembered per JVM together with the size and modification
+ * time of the file, so large inputs like p5subset.xml or the stylesheets are
+ * read only once as long as they do not change.
+ */
+public class ContentHash {
+
+	private static final ConcurrentHashMap<String, String[]> fileHashes = new ConcurrentHashMap<String, String[]>();
+
+	/**
+	 * @param file a file
+	 * @return the hash of the file's content
+	 * @throws IOException if the file could not be read
+	 */
+	public static String ofFile(File file) throws IOException{
+		String key = file.getAbsolutePath();
+		String stamp = file.length() + ":" + file.lastModified();
+		String[] known = fileHashes.get(key);
+		if(null != known && known[0].equals(stamp))
+			return known[1];
+
+		MessageDigest digest = newDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+
+		String hash = toHex(digest.digest());
+		fileHashes.put(key, new String[]{stamp, hash});
+		return hash;
+	}
+
+	/**
+	 * @param files any files, some of which may not exist
+	 * @return a hash over the names and contents of the files
+	 * @throws IOException if a file could not be read
+	 */
+	public static String ofFiles(List<File> files) throws IOException{
+		MessageDigest digest = newDigest();
+		for(File file : files){
+			update(digest, file.getAbsolutePath());
+			update(digest, file.isFile() ? ofFile(file) : "missing");
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @param dir a directory
+	 * @return a hash over the names and contents of all files below the directory
+	 * @throws IOException if a file could not be read
+	 */
+	public static String ofDirectory(File dir) throws IOException{
+		MessageDigest digest = newDigest();
+		addDirectory(digest, dir, "");
+		return toHex(digest.digest());
+	}
+
+	private static void addDirectory(MessageDigest digest, File dir, String path) throws IOException{
+		File[] children = dir.listFiles();
+		if(null == children)
+			return;
+		Arrays.sort(children);
+		for(File child : children){
+			if(child.getName().startsWith("."))
+				continue;
+			if(child.isDirectory()){
+				addDirectory(digest, child, path + child.getName() + "/");
+			} else {
+				update(digest, path + child.getName());
+				update(digest, ofFile(child));
+			}
+		}
+	}
+
+	/**
+	 * @param parts any values, null is allowed
+	 * @return a hash over the string values of all parts
+	 */
+	public static String of(Object... parts){
+		MessageDigest digest = newDigest();
+		for(Object part : parts)
+			update(digest, String.valueOf(part));
+		return toHex(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, String s){
+		try {
+			digest.update(s.getBytes("UTF-8"));
+			digest.update((byte) 0);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MessageDigest newDigest(){
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes){
+		StringBuilder hex = new StringBuilder();
+		for(byte b : bytes){
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+}
@@ -0,0 +1,137 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Calls back when watched files were changed, created or removed. The files
+ * are polled; an editor that saves in several steps, or a save of several
+ * files at once, leads to a single call back once the files stayed unchanged
+ * for the debounce interval.
+ */
+public class FileWatcher {
+
+	private final long pollMillis;
+	private final long debounceMillis;
+
+	private Map<File, String> stamps = new HashMap<File, String>();
+	private volatile Thread thread;
+	private boolean stopped;
+
+	/**
+	 * @param pollMillis the interval in which the files are checked
+	 * @param debounceMillis how long the files must stay unchanged after a change
+	 */
+	public FileWatcher(long pollMillis, long debounceMillis){
+		this.pollMillis = Math.max(10, pollMillis);
+		this.debounceMillis = Math.max(0, debounceMillis);
+	}
+
+	/**
+	 * Creates a watcher with the intervals configured in the properties.
+	 */
+	public FileWatcher(){
+		this(PropertiesProvider.getInstance().getWatchPollMillis(),
+				PropertiesProvider.getInstance().getWatchDebounceMillis());
+	}
+
+	/**
+	 * Sets the files to watch. Files that were watched before keep the state
+	 * they were last seen in, so a change made while the call back was running
+	 * is not missed.
+	 * @param files the files to watch
+	 */
+	public synchronized void setFiles(Collection<File> files){
+		Map<File, String> next = new HashMap<File, String>();
+		for(File file : files){
+			File key = file.getAbsoluteFile();
+			String stamp = stamps.get(key);
+			next.put(key, null != stamp ? stamp : stamp(key));
+		}
+		stamps = next;
+	}
+
+	/**
+	 * Starts watching on a daemon thread.
+	 * @param onChange called on the watcher thread after the files changed.
+	 * Changes made while it runs lead to another call. Does nothing if the
+	 * watcher was stopped before.
+	 */
+	public synchronized void start(final Runnable onChange){
+		if(stopped)
+			return;
+		if(null != thread)
+			throw new IllegalStateException("The watcher is already running.");
+		thread = new Thread(new Runnable(){
+			public void run() {
+				watch(onChange);
+			}
+		}, "vesta-watch");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching. A call back that is running is not interrupted.
+	 */
+	public synchronized void stop(){
+		stopped = true;
+		thread = null;
+	}
+
+	/**
+	 * @return true if the watcher was started and not stopped
+	 */
+	public boolean isRunning(){
+		return null != thread;
+	}
+
+	private void watch(Runnable onChange){
+		Thread self = Thread.currentThread();
+		long changed = -1;
+		while(thread == self){
+			try {
+				Thread.sleep(pollMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if(poll()){
+				changed = System.currentTimeMillis();
+			} else if(changed != -1 && System.currentTimeMillis() - changed >= debounceMillis){
+				changed = -1;
+				if(thread != self)
+					return;
+				try {
+					onChange.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if a file changed since the last poll
+	 */
+	private synchronized boolean poll(){
+		boolean changed = false;
+		for(Map.Entry<File, String> entry : stamps.entrySet()){
+			String stamp = stamp(entry.getKey());
+			if(! stamp.equals(entry.getValue())){
+				entry.setValue(stamp);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static String stamp(File file){
+		if(! file.exists())
+			return "missing";
+		return file.lastModified() + ":" + file.length();
+	}
+
+}
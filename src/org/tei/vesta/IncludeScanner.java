@@ -0,0 +1,139 @@
+package org.tei.vesta;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Finds the local files an ODD is made of besides itself: documents pulled in
+ * with XInclude, schemas referenced by moduleRef/@url and specification
+ * groups referenced by specGrpRef/@target. Included XML documents are searched
+ * as well. Remote resources are not followed.
+ */
+public class IncludeScanner {
+
+	private static final String XINCLUDE_NS = "http://www.w3.org/2001/XInclude";
+	private static final String TEI_NS = "http://www.tei-c.org/ns/1.0";
+
+	private static final XMLInputFactory factory = createFactory();
+
+	/**
+	 * @param file an ODD or any TEI file
+	 * @return the file followed by every local file it includes, directly or
+	 * not. Files that do not exist are listed too, as they may be created later.
+	 * @throws IOException if a file could not be read
+	 * @throws XMLStreamException if a file is not well-formed
+	 */
+	public static List<File> scan(File file) throws IOException, XMLStreamException{
+		Set<File> files = new LinkedHashSet<File>();
+		scan(file.getAbsoluteFile(), files);
+		return new ArrayList<File>(files);
+	}
+
+	/**
+	 * Like {@link #scan(File)}, for callers that rather watch too little than fail.
+	 * @param file an ODD or any TEI file
+	 * @return the file and the files it includes, only the file if it could not be read
+	 */
+	public static List<File> findFiles(File file){
+		try {
+			return scan(file);
+		} catch (Exception e) {
+			List<File> files = new ArrayList<File>();
+			files.add(file.getAbsoluteFile());
+			return files;
+		}
+	}
+
+	private static void scan(File file, Set<File> files) throws IOException, XMLStreamException{
+		if(! files.add(file) || ! file.isFile())
+			return;
+
+		List<File> xml = new ArrayList<File>();
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			XMLStreamReader reader;
+			synchronized(factory){
+				reader = factory.createXMLStreamReader(file.toURI().toString(), in);
+			}
+			try {
+				while(reader.hasNext()){
+					if(reader.next() != XMLStreamConstants.START_ELEMENT)
+						continue;
+					String ns = reader.getNamespaceURI();
+					String name = reader.getLocalName();
+					if(XINCLUDE_NS.equals(ns) && name.equals("include")){
+						File included = resolve(file, reader.getAttributeValue(null, "href"));
+						if(null == included)
+							continue;
+						if("text".equals(reader.getAttributeValue(null, "parse")))
+							files.add(included);
+						else
+							xml.add(included);
+					} else if(TEI_NS.equals(ns) && name.equals("moduleRef")){
+						addLocal(file, reader.getAttributeValue(null, "url"), files);
+					} else if(TEI_NS.equals(ns) && name.equals("specGrpRef")){
+						addLocal(file, reader.getAttributeValue(null, "target"), files);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			in.close();
+		}
+
+		for(File included : xml)
+			scan(included, files);
+	}
+
+	private static void addLocal(File base, String href, Set<File> files){
+		File resolved = resolve(base, href);
+		if(null != resolved)
+			files.add(resolved);
+	}
+
+	/**
+	 * @return the local file a reference points to, null for references within
+	 * the document and for remote resources
+	 */
+	private static File resolve(File base, String href){
+		if(null == href)
+			return null;
+		int hash = href.indexOf('#');
+		String path = (hash == -1 ? href : href.substring(0, hash)).trim();
+		if(path.length() == 0)
+			return null;
+		try {
+			URI uri = base.toURI().resolve(new URI(path.replace(" ", "%20")));
+			if(! "file".equals(uri.getScheme()))
+				return null;
+			return new File(uri);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static XMLInputFactory createFactory(){
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		// the DTD is not needed and must not be fetched, the catalogs do not reach StAX
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+		return factory;
+	}
+
+}
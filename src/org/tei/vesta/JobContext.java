@@ -0,0 +1,114 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * The state that belongs to a single run of a {@link VestaProcessor}: a copy
+ * of the configuration taken when the job was created and its own temporary
+ * directory. Several jobs can run in one JVM without sharing any of it.
+ *
+ * The context of the job a thread works for is bound to the thread, so that
+ * callbacks of the TEI library, which only know the process wide
+ * {@link PropertiesProvider}, can find it. The {@link StageScheduler} binds it
+ * to the threads running the stages.
+ */
+public class JobContext {
+
+	private static final ThreadLocal<JobContext> current = new ThreadLocal<JobContext>();
+
+	private final String id;
+	private final PropertiesProvider properties;
+	private final ProcessListener listener;
+	private final CancellationToken cancellation;
+	private File tempDir;
+
+	/**
+	 * @param properties the configuration the job is started with, it is copied
+	 * @param listener the listener of the job
+	 * @param cancellation the token that stops the job
+	 */
+	public JobContext(PropertiesProvider properties, ProcessListener listener, CancellationToken cancellation){
+		this.id = UUID.randomUUID().toString();
+		this.properties = properties.snapshot();
+		this.listener = listener;
+		this.cancellation = cancellation;
+	}
+
+	/**
+	 * @return the context of the job the current thread works for, null if there is none
+	 */
+	public static JobContext current(){
+		return current.get();
+	}
+
+	/**
+	 * Binds a context to the current thread.
+	 * @param context the context, null to unbind
+	 * @return the context that was bound before
+	 */
+	public static JobContext setCurrent(JobContext context){
+		JobContext previous = current.get();
+		if(null == context)
+			current.remove();
+		else
+			current.set(context);
+		return previous;
+	}
+
+	/**
+	 * @return the temporary directory of the job in the {@link Workspace}, created on first use
+	 */
+	public synchronized File getTempDir(){
+		if(null == tempDir){
+			Workspace workspace = Workspace.getInstance();
+			tempDir = workspace.createJobDir(id);
+			// a workspace that fell back to the disk tells every job that uses it
+			if(null != workspace.getWarning() && null != listener)
+				listener.info("Warning: " + workspace.getWarning());
+		}
+		return tempDir;
+	}
+
+	/**
+	 * Checks that the temporary files of the job stay within the size of the
+	 * workspace. The {@link StageScheduler} calls it after each stage, so the
+	 * limit is not a hard cap: a stage may use more while it runs.
+	 * @throws IOException if they are larger than allowed
+	 */
+	public synchronized void checkTempDir() throws IOException{
+		if(null != tempDir)
+			Workspace.getInstance().checkSize(tempDir);
+	}
+
+	/**
+	 * Deletes the temporary directory of the job.
+	 */
+	public synchronized void dispose(){
+		if(null != tempDir){
+			Workspace.delete(tempDir);
+			tempDir = null;
+		}
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the copy of the configuration taken when the job was created
+	 */
+	public PropertiesProvider getProperties() {
+		return properties;
+	}
+
+	public ProcessListener getListener() {
+		return listener;
+	}
+
+	public CancellationToken getCancellationToken() {
+		return cancellation;
+	}
+
+}
@@ -0,0 +1,221 @@
+package org.tei.vesta;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs Vesta jobs on a fixed number of threads with a bounded queue, so that a
+ * burst of submissions cannot start more heavy transformations than the heap
+ * holds. Once all threads are busy and the queue is full, further jobs are
+ * rejected ({@link #submit(Runnable)}) or the caller waits for room
+ * ({@link #submitAndWait(Runnable)}).
+ *
+ * The GUI, the batch runner and the server all submit their jobs to the
+ * instance shared by the JVM. It is sized by the job.pool.size and
+ * job.queue.size properties, unless the batch runner or the server size it
+ * from their command line with {@link #configure(int, int)}.
+ */
+public class JobExecutor {
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+
+	private static JobExecutor instance;
+
+	private final int poolSize;
+	private final int queueSize;
+	private final ThreadPoolExecutor pool;
+	// one permit per thread and queue slot. A finishing job gives its permit
+	// back before its thread is free, so the pool's own queue is larger.
+	private final Semaphore slots;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * @param poolSize the number of jobs run at the same time
+	 * @param queueSize the number of jobs that may wait for a thread
+	 */
+	public JobExecutor(int poolSize, int queueSize){
+		if(poolSize < 1)
+			throw new IllegalArgumentException("At least one thread is needed to run jobs.");
+		if(queueSize < 0)
+			throw new IllegalArgumentException("The queue size must not be negative.");
+		this.poolSize = poolSize;
+		this.queueSize = queueSize;
+		this.slots = new Semaphore(poolSize + queueSize, true);
+		this.pool = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(poolSize + queueSize), new ThreadFactory(){
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "vesta-job-" + threadCounter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Sizes the executor shared by all jobs of this JVM instead of the
+	 * properties. Must be called before the shared executor is first used.
+	 * @param poolSize the number of jobs run at the same time
+	 * @param queueSize the number of jobs that may wait for a thread
+	 * @throws IllegalStateException if the shared executor exists already
+	 */
+	public static synchronized void configure(int poolSize, int queueSize){
+		if(null != instance)
+			throw new IllegalStateException("The shared executor is already in use.");
+		instance = new JobExecutor(poolSize, queueSize);
+	}
+
+	/**
+	 * Provides access to the executor shared by all jobs of this JVM.
+	 * @return The instance of JobExecutor.
+	 */
+	public static synchronized JobExecutor getInstance(){
+		if(null == instance){
+			PropertiesProvider properties = PropertiesProvider.getInstance();
+			instance = new JobExecutor(properties.getJobPoolSize(), properties.getJobQueueSize());
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Queues a job, unless the queue is full.
+	 * @param job the job
+	 * @return the future of the job
+	 * @throws RejectedExecutionException if all threads are busy and the queue is full
+	 */
+	public Future<?> submit(Runnable job) throws RejectedExecutionException{
+		if(! slots.tryAcquire()){
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("Too many jobs: " + getRunning() + " running, " + getQueueDepth() + " queued.");
+		}
+		return execute(job);
+	}
+
+	/**
+	 * Queues a job, waiting for room in the queue if necessary.
+	 * @param job the job
+	 * @return the future of the job
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public Future<?> submitAndWait(Runnable job) throws InterruptedException{
+		slots.acquire();
+		return execute(job);
+	}
+
+	private Future<?> execute(final Runnable job){
+		final long queuedAt = System.nanoTime();
+		FutureTask<Object> task = new FutureTask<Object>(new Runnable(){
+			public void run() {
+				long wait = System.nanoTime() - queuedAt;
+				totalWaitNanos.addAndGet(wait);
+				started.incrementAndGet();
+				for(long max = maxWaitNanos.get(); wait > max && ! maxWaitNanos.compareAndSet(max, wait); max = maxWaitNanos.get());
+				try {
+					job.run();
+				} finally {
+					completed.incrementAndGet();
+					slots.release();
+				}
+			}
+		}, null);
+
+		submitted.incrementAndGet();
+		try {
+			pool.execute(task);
+		} catch (RejectedExecutionException e) {
+			slots.release();
+			submitted.decrementAndGet();
+			rejected.incrementAndGet();
+			throw e;
+		}
+		return task;
+	}
+
+	/**
+	 * Stops accepting jobs. Queued and running jobs are finished.
+	 */
+	public void shutdown(){
+		pool.shutdown();
+	}
+
+	/**
+	 * Waits until all jobs finished after {@link #shutdown()}.
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public void awaitTermination() throws InterruptedException{
+		while(! pool.awaitTermination(1, TimeUnit.MINUTES));
+	}
+
+	/**
+	 * @return the number of jobs waiting for a thread
+	 */
+	public int getQueueDepth(){
+		return pool.getQueue().size();
+	}
+
+	/**
+	 * @return the number of jobs being run
+	 */
+	public int getRunning(){
+		return pool.getActiveCount();
+	}
+
+	/**
+	 * @return the average time jobs waited in the queue, in milliseconds
+	 */
+	public long getAverageWaitMillis(){
+		long count = started.get();
+		return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count);
+	}
+
+	/**
+	 * @return the longest time a job waited in the queue, in milliseconds
+	 */
+	public long getMaxWaitMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+	}
+
+	/**
+	 * @return the number of accepted jobs
+	 */
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	/**
+	 * @return the number of jobs turned away because the queue was full
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return the number of finished jobs
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+}
@@ -0,0 +1,48 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Receives the files of a run in place of the output directory, e.g. a ZIP
+ * bundle. Files are named by their path relative to the output directory,
+ * with / as separator.
+ *
+ * Stages run concurrently and may write to the sink at the same time.
+ */
+public interface OutputSink {
+
+	/**
+	 * Opens a file of the output. The file is complete once the stream is closed.
+	 * @param path the path of the file
+	 * @return the stream to write the file to
+	 * @throws IOException if the file could not be opened
+	 */
+	public OutputStream open(String path) throws IOException;
+
+	/**
+	 * Adds the content of a file on disk, for outputs that can only be
+	 * written to a file. The file itself is left alone.
+	 * @param path the path of the file in the output
+	 * @param file the file to read
+	 * @throws IOException if the file could not be added
+	 */
+	public void add(String path, File file) throws IOException;
+
+	/**
+	 * Tells whether a file was already written. Implementations synchronize on
+	 * themselves, so that a check and an add are atomic within a block
+	 * synchronized on the sink.
+	 * @param path the path of the file
+	 * @return true if the file is complete
+	 */
+	public boolean contains(String path);
+
+	/**
+	 * Completes the output. Files opened afterwards fail.
+	 * @throws IOException if the output could not be completed
+	 */
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,46 @@
+package org.tei.vesta;
+
+/**
+ * Receives the progress of a {@link VestaProcessor} run. The GUI shows the
+ * messages in a {@link RunDialog}, the command line runner prints them.
+ * 
+ * Implementations are called from the thread that runs the processor, not from
+ * the SWT UI thread.
+ */
+public interface ProcessListener {
+
+	/**
+	 * Called before any work is done.
+	 * @param proc the processor that starts
+	 */
+	public void processingStarted(VestaProcessor proc);
+	
+	/**
+	 * Called for every progress line, xsl:message, warning and error.
+	 * @param text the message
+	 */
+	public void info(String text);
+	
+	/**
+	 * Called once the processor finished without errors.
+	 * @param proc the processor
+	 */
+	public void processingFinished(VestaProcessor proc);
+	
+	/**
+	 * Called once the processor was aborted by an error.
+	 * @param proc the processor
+	 * @param e the error that stopped the run
+	 */
+	public void processingFailed(VestaProcessor proc, Exception e);
+	
+	/**
+	 * Called once the processor stopped because it was cancelled, instead of
+	 * {@link #processingFinished(VestaProcessor)} or
+	 * {@link #processingFailed(VestaProcessor, Exception)}. A processor that is
+	 * cancelled before it started only calls this method.
+	 * @param proc the processor
+	 */
+	public void processingCancelled(VestaProcessor proc);
+	
+}
@@ -0,0 +1,207 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Knows the profiles of the TEI stylesheets and the output formats each of
+ * them offers, that is the subdirectories of profiles/&lt;profile&gt; that
+ * contain a to.xsl.
+ *
+ * The profiles directory is read once per JVM on a background thread, so that
+ * a slow file system does not block the caller. A watcher then checks the
+ * modification times of the directories it indexed and reads the directory
+ * again only if one of them changed. Listeners are told about every change.
+ */
+public class ProfileIndex {
+
+	public static final String DEFAULT_PROFILE = "default";
+
+	private static ProfileIndex instance;
+
+	private final File dir;
+	private final long pollMillis;
+	private final CountDownLatch loaded = new CountDownLatch(1);
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+
+	// profile name -> formats, replaced as a whole
+	private volatile Map<String, List<String>> profiles = Collections.emptyMap();
+	// the directories read for the current index and their modification times
+	private Map<File, Long> watched = Collections.emptyMap();
+
+	/**
+	 * Starts indexing a profiles directory.
+	 * @param dir the profiles directory of the stylesheets
+	 * @param pollMillis the interval in which the directory is checked for changes, 0 to not watch it
+	 */
+	public ProfileIndex(File dir, long pollMillis){
+		this.dir = dir;
+		this.pollMillis = pollMillis;
+
+		Thread watcher = new Thread(new Runnable(){
+			public void run() {
+				watch();
+			}
+		}, "vesta-profiles");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Provides access to the index of the configured stylesheets shared by all
+	 * parts of Vesta.
+	 * @return The instance of ProfileIndex.
+	 */
+	public static synchronized ProfileIndex getInstance(){
+		if(null == instance){
+			PropertiesProvider properties = PropertiesProvider.getInstance();
+			instance = new ProfileIndex(new File(properties.getStylesheetDir(), "profiles"),
+					properties.getProfilesPollSeconds() * 1000L);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @param listener called on the watcher thread whenever the index was read
+	 * or changed. It is called at once if the index has already been read.
+	 */
+	public void addChangeListener(Runnable listener){
+		listeners.add(listener);
+		if(isLoaded())
+			listener.run();
+	}
+
+	public void removeChangeListener(Runnable listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return true once the directory was read for the first time
+	 */
+	public boolean isLoaded(){
+		return loaded.getCount() == 0;
+	}
+
+	/**
+	 * Waits until the directory was read for the first time.
+	 * @param millis the longest time to wait
+	 * @return true if the index is loaded
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public boolean await(long millis) throws InterruptedException{
+		return loaded.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the profiles, the default profile first and the others by name.
+	 * Empty as long as the index is not loaded.
+	 */
+	public List<String> getProfiles(){
+		return new ArrayList<String>(profiles.keySet());
+	}
+
+	/**
+	 * @param profile a profile
+	 * @return the formats of the profile by name, empty if the profile is unknown
+	 */
+	public List<String> getFormats(String profile){
+		List<String> formats = profiles.get(profile);
+		return null == formats ? Collections.<String>emptyList() : formats;
+	}
+
+	private void watch(){
+		while(true){
+			try {
+				if(! isLoaded() || hasChanged())
+					index();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				loaded.countDown();
+			}
+
+			if(pollMillis <= 0)
+				return;
+			try {
+				Thread.sleep(pollMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return true if a directory of the index was changed, added or removed
+	 */
+	private boolean hasChanged(){
+		if(dir.lastModified() != value(watched.get(dir)))
+			return true;
+		for(Map.Entry<File, Long> entry : watched.entrySet()){
+			if(entry.getKey().lastModified() != entry.getValue().longValue())
+				return true;
+		}
+		return false;
+	}
+
+	private static long value(Long l){
+		return null == l ? -1 : l.longValue();
+	}
+
+	private void index(){
+		Map<File, Long> read = new HashMap<File, Long>();
+		read.put(dir, dir.lastModified());
+
+		List<String> names = new ArrayList<String>();
+		File[] children = dir.listFiles();
+		if(null != children){
+			for(File child : children){
+				if(child.isDirectory() && ! child.getName().startsWith("."))
+					names.add(child.getName());
+			}
+		}
+		Collections.sort(names);
+		if(names.remove(DEFAULT_PROFILE) || dir.isDirectory())
+			names.add(0, DEFAULT_PROFILE);
+
+		Map<String, List<String>> index = new LinkedHashMap<String, List<String>>();
+		for(String name : names){
+			File profile = new File(dir, name);
+			read.put(profile, profile.lastModified());
+
+			List<String> formats = new ArrayList<String>();
+			File[] formatDirs = profile.listFiles();
+			if(null != formatDirs){
+				for(File format : formatDirs){
+					if(format.getName().startsWith(".") || ! format.isDirectory())
+						continue;
+					// a to.xsl added later changes the directory
+					read.put(format, format.lastModified());
+					if(new File(format, "to.xsl").isFile())
+						formats.add(format.getName());
+				}
+			}
+			Collections.sort(formats);
+			index.put(name, Collections.unmodifiableList(formats));
+		}
+
+		boolean changed = ! index.equals(profiles);
+		profiles = Collections.unmodifiableMap(index);
+		watched = read;
+
+		if(changed || ! isLoaded()){
+			loaded.countDown();
+			for(Runnable listener : listeners)
+				listener.run();
+		}
+	}
+
+}
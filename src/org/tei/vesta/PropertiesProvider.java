@@ -5,10 +5,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.InvalidPropertiesFormatException;
+import java.util.List;
 import java.util.Properties;
 
 import org.tei.docx.DocXPropertiesProvider;
+import org.tei.tei.TEI;
 import org.tei.tei.TEIArchivePropertiesProvider;
 import org.tei.tei.TEIPropertiesProvider;
 
@@ -48,17 +51,39 @@ public class PropertiesProvider
 		}		
 	}
 	
+	/**
+	 * Copies the configuration of another provider.
+	 */
+	protected PropertiesProvider(PropertiesProvider other){
+		baseDir = other.baseDir;
+		properties = new Properties();
+		properties.putAll(other.properties);
+	}
+	
 	/**
 	 * Provides access to the type PropertiesProvider.
 	 * @return The instance of PropertiesProvider.
 	 */
-	public static PropertiesProvider getInstance(){
-		if(null == instance)
+	public static synchronized PropertiesProvider getInstance(){
+		if(null == instance){
 			instance = new PropertiesProvider();
+			// the TEI library keeps a single provider for the whole process
+			TEI.setPropertiesProvider(instance);
+		}
 		
 		return instance;
 	}	
 	
+	/**
+	 * Copies the configuration for a job, see {@link JobContext}. The copy is
+	 * not handed to the TEI library; the process wide provider answers the
+	 * library with the copy of the job the calling thread works for.
+	 * @return a copy of this configuration
+	 */
+	public PropertiesProvider snapshot(){
+		return new PropertiesProvider(this);
+	}
+	
 	public String getP5Subset(){
 		return baseDir + properties.getProperty("p5subset");
 	}
@@ -71,25 +96,193 @@ public class PropertiesProvider
 		return baseDir + properties.getProperty("css.dir");
 	}
 	
+	/**
+	 * @return the directory the jobs create their temporary directories in, see {@link Workspace}
+	 */
+	public String getTempDir(){
+		return Workspace.getInstance().getRoot().getPath();
+	}
+	
+	/**
+	 * @return the backend of the workspace: disk, tmpfs or memory
+	 */
+	public String getWorkspace(){
+		return properties.getProperty("workspace", Workspace.DISK).trim();
+	}
+	
+	/**
+	 * @return the directory of the workspace if it is set explicitly, else null
+	 */
+	public String getWorkspaceDir(){
+		String dir = properties.getProperty("workspace.dir");
+		return null == dir || dir.trim().length() == 0 ? null : dir.trim();
+	}
+	
+	/**
+	 * @return the size in megabytes the temporary files of a job may have once
+	 * a stage finished, 0 for no limit, see {@link Workspace}
+	 */
+	public int getWorkspaceMaxMegabytes(){
+		return getInt("workspace.max.mb", 1024);
+	}
+	
+	/**
+	 * @return the temporary directory of the current job, see {@link JobContext}
+	 */
 	public String docx_pp_getTempDir() {
-		return baseDir + "resources/tmp";
+		JobContext context = JobContext.current();
+		return null != context ? context.getTempDir().getPath() : getTempDir();
 	}
 
+	/**
+	 * @return the temporary directory of the current job, see {@link JobContext}
+	 */
 	public String teiarc_pp_getTempDir() {
-		return baseDir + "resources/tmp";
+		JobContext context = JobContext.current();
+		return null != context ? context.getTempDir().getPath() : getTempDir();
 	}
 
+	/**
+	 * @return the stylesheet directory of the current job, see {@link JobContext}
+	 */
 	public String tei_pp_getStylesheetsDir() {
-		return baseDir + properties.getProperty("stylesheets.dir");
+		JobContext context = JobContext.current();
+		return null != context ? context.getProperties().getStylesheetDir() : getStylesheetDir();
 	}
 
+	/**
+	 * @return the p5subset of the current job, see {@link JobContext}
+	 */
 	public String tei_pp_getP5Subset() {
-		return baseDir + properties.getProperty("p5subset");
+		JobContext context = JobContext.current();
+		return null != context ? context.getProperties().getP5Subset() : getP5Subset();
 	}
 	
 	public boolean isOddEnabled(){
 		return properties.getProperty("odd.enabled").equals("true");
 	}
 	
+	/**
+	 * @return the number of jobs run at the same time
+	 */
+	public int getJobPoolSize(){
+		return getInt("job.pool.size", 2);
+	}
+	
+	/**
+	 * @return the number of jobs that may wait for a free thread
+	 */
+	public int getJobQueueSize(){
+		return getInt("job.queue.size", 8);
+	}
+	
+	/**
+	 * @return the number of lines the run dialog and the log of a server job
+	 * keep, older lines are dropped
+	 */
+	public int getLogMaxLines(){
+		return getInt("log.max.lines", 5000);
+	}
+	
+	/**
+	 * @return the number of threads that answer the requests of the server
+	 */
+	public int getServerThreads(){
+		return getInt("server.threads", 16);
+	}
+	
+	/**
+	 * @return the interval in milliseconds in which the run dialog shows new lines
+	 */
+	public int getLogRefreshMillis(){
+		return getInt("log.refresh.millis", 100);
+	}
+	
+	/**
+	 * @return the interval in seconds in which the profiles of the stylesheets are checked for changes, 0 to not check
+	 */
+	public int getProfilesPollSeconds(){
+		return getInt("profiles.poll.seconds", 10);
+	}
+	
+	/**
+	 * @return the directory compiled ODDs are cached in across runs, see {@link CompiledOddCache}
+	 */
+	public String getOddCacheDir(){
+		String dir = properties.getProperty("odd.cache.dir");
+		if(null == dir || dir.trim().length() == 0)
+			return System.getProperty("java.io.tmpdir") + File.separator + "vesta-odd-cache";
+		dir = dir.trim();
+		return new File(dir).isAbsolute() ? dir : baseDir + dir;
+	}
+	
+	/**
+	 * @return the size in megabytes of the compiled ODD cache, 0 to disable it
+	 */
+	public int getOddCacheMaxMegabytes(){
+		return getInt("odd.cache.max.mb", 256);
+	}
+	
+	/**
+	 * @return the XML catalogs resources are resolved with, see {@link CatalogResolver}
+	 */
+	public List<String> getCatalogFiles(){
+		List<String> files = new ArrayList<String>();
+		for(String file : properties.getProperty("catalog.files", "").split(";")){
+			file = file.trim();
+			if(file.length() > 0)
+				files.add(new File(file).isAbsolute() ? file : baseDir + file);
+		}
+		return files;
+	}
+	
+	/**
+	 * @return true if resources are never fetched from the network
+	 */
+	public boolean isResolverOffline(){
+		return "true".equals(properties.getProperty("resolver.offline", "false").trim());
+	}
+	
+	/**
+	 * @return the seconds to wait for a remote resource
+	 */
+	public int getResolverTimeoutSeconds(){
+		return getInt("resolver.timeout.seconds", 10);
+	}
+	
+	/**
+	 * @return the size in megabytes of the remote resources kept in memory
+	 */
+	public int getResolverCacheMegabytes(){
+		return getInt("resolver.cache.mb", 32);
+	}
+	
+	/**
+	 * @return how often in milliseconds watched files are checked for changes
+	 */
+	public int getWatchPollMillis(){
+		return getInt("watch.poll.millis", 500);
+	}
+	
+	/**
+	 * @return how long in milliseconds watched files must stay unchanged
+	 * before the outputs are regenerated
+	 */
+	public int getWatchDebounceMillis(){
+		return getInt("watch.debounce.millis", 500);
+	}
+	
+	private int getInt(String key, int defaultValue){
+		String value = properties.getProperty(key);
+		if(null == value)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			e.printStackTrace();
+			return defaultValue;
+		}
+	}
+	
 
 }
@@ -1,5 +1,9 @@
 package org.tei.vesta;
 
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
@@ -29,10 +33,38 @@ public class RunDialog extends org.eclipse.swt.widgets.Dialog {
 	private Shell dialogShell;
 	private Button closeButton;
 	private Text messagesText;
-	private boolean allowClose = false;
+	private volatile boolean allowClose = false;
+	private Runnable cancelHandler;
+	
+	private final int maxLines;
+	private final int refreshMillis;
+	// lines appended by any thread, shown by the UI thread in batches
+	private final Queue<String> pending = new ConcurrentLinkedQueue<String>();
+	// the lines shown, the oldest are dropped beyond maxLines
+	private final LinkedList<String> lines = new LinkedList<String>();
+	private final Runnable refresher = new Runnable(){
+		public void run() {
+			if(null == dialogShell || dialogShell.isDisposed())
+				return;
+			flush();
+			dialogShell.getDisplay().timerExec(refreshMillis, this);
+		}
+	};
 
 	public RunDialog(Shell parent, int style) {
+		this(parent, style, PropertiesProvider.getInstance().getLogMaxLines(), PropertiesProvider.getInstance().getLogRefreshMillis());
+	}
+	
+	/**
+	 * @param parent the parent shell
+	 * @param style the style of the dialog
+	 * @param maxLines the number of lines kept, older lines are dropped
+	 * @param refreshMillis the interval in which appended lines are shown
+	 */
+	public RunDialog(Shell parent, int style, int maxLines, int refreshMillis) {
 		super(parent, style);
+		this.maxLines = Math.max(1, maxLines);
+		this.refreshMillis = Math.max(1, refreshMillis);
 	}
 
 	public void open() {
@@ -75,11 +107,17 @@ public class RunDialog extends org.eclipse.swt.widgets.Dialog {
 			}
 			dialogShell.setLocation(getParent().toDisplay(100, 100));
 			dialogShell.open();
+			refresher.run();
 			dialogShell.addListener(SWT.Close, new Listener() {
 		      public void handleEvent(Event event) {
 		    	  if(! allowClose) {
 		    		  event.doit = false;
-		    		  appendLine("Vesta is still running ...");
+		    		  if(null != cancelHandler){
+		    			  appendLine("Cancelling ...");
+		    			  closeButton.setEnabled(false);
+		    			  cancelHandler.run();
+		    		  } else
+		    			  appendLine("Vesta is still running ...");
 		    	  }
 		      }
 		    });
@@ -88,17 +126,61 @@ public class RunDialog extends org.eclipse.swt.widgets.Dialog {
 		}
 	}
 	
+	/**
+	 * Appends a line. It is shown with the next refresh. May be called from any thread.
+	 * @param line the line
+	 */
 	public void appendLine(String line){
-		if(messagesText.getText().equals(""))
-			messagesText.setText(line);
-		else
-			messagesText.insert(messagesText.getLineDelimiter() + line);
-		messagesText.setSelection(messagesText.getText().length());
+		pending.add(line);
+	}
+	
+	/**
+	 * Shows the pending lines at once. Must be called on the UI thread.
+	 */
+	void flush(){
+		if(pending.isEmpty())
+			return;
+		
+		String delimiter = messagesText.getLineDelimiter();
+		StringBuilder batch = new StringBuilder();
+		boolean first = lines.isEmpty();
+		for(String line; null != (line = pending.poll()); ){
+			lines.add(line);
+			if(! first)
+				batch.append(delimiter);
+			batch.append(line);
+			first = false;
+		}
+		
+		if(lines.size() > maxLines){
+			// drop a tenth more than needed, so that the text is not rebuilt with every batch
+			int drop = lines.size() - maxLines + maxLines / 10;
+			for(int i = 0; i < drop && lines.size() > 1; i++)
+				lines.removeFirst();
+			StringBuilder text = new StringBuilder();
+			first = true;
+			for(String line : lines){
+				if(! first)
+					text.append(delimiter);
+				text.append(line);
+				first = false;
+			}
+			messagesText.setText(text.toString());
+		} else
+			messagesText.append(batch.toString());
+		messagesText.setSelection(messagesText.getCharCount());
 	}
 	
 	public void setAllowClose(boolean allow){
 		this.allowClose = allow;
 	}
 	
+	/**
+	 * @param cancelHandler called when the dialog is closed while Vesta is still running
+	 */
+	public void setCancelHandler(Runnable cancelHandler){
+		this.cancelHandler = cancelHandler;
+	}
+	
 	
 }
@@ -0,0 +1,100 @@
+package org.tei.vesta;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.MessageBox;
+import org.eclipse.swt.widgets.Shell;
+
+/**
+ * Shows the progress of a {@link VestaProcessor} in a {@link RunDialog}.
+ * 
+ * Must be created on the SWT UI thread.
+ */
+public class RunDialogListener implements ProcessListener {
+
+	private final RunDialog runDialog;
+	private final Shell shell;
+	
+	public RunDialogListener(){
+		shell = new Shell(Display.getDefault());
+		runDialog = new RunDialog(shell, SWT.RESIZE | SWT.NO_TRIM | SWT.CLOSE);
+	}
+	
+	public void processingStarted(final VestaProcessor proc) {
+		Display.getDefault().asyncExec(new Runnable(){
+			public void run() {
+				// closing the dialog stops the run
+				runDialog.setCancelHandler(new Runnable(){
+					public void run() {
+						proc.cancel();
+					}
+				});
+				runDialog.open();
+				runDialog.appendLine("Start processing " + proc.getOddFile());
+			}
+			
+		});
+	}
+
+	public void info(String text) {
+		// the dialog shows the lines in batches
+		runDialog.appendLine(text);
+	}
+
+	public void processingFinished(VestaProcessor proc) {
+		Display.getDefault().asyncExec( new Runnable() {
+			public void run(){
+				if(shell.isDisposed())
+					return;
+				MessageBox mb = new MessageBox(shell);
+				mb.setMessage("Done");
+				mb.open();
+			}
+		});
+		
+		runDialog.setAllowClose(true);
+	}
+
+	public void processingFailed(final VestaProcessor proc, final Exception e) {
+		Display.getDefault().asyncExec( new Runnable() {
+			public void run() {
+				if(shell.isDisposed())
+					return;
+				MessageBox mb = new MessageBox(shell);
+				mb.setMessage(e.getMessage());
+				mb.open();
+			}
+		} );
+		Display.getDefault().asyncExec( new Runnable() {
+			public void run(){
+				if(shell.isDisposed())
+					return;
+				MessageBox mb = new MessageBox(shell);
+				mb.setMessage("Errors occured while processing " + proc.getOddFile());
+				mb.open();
+			}
+		});
+		
+		runDialog.setAllowClose(true);
+	}
+	
+	public void processingCancelled(VestaProcessor proc) {
+		runDialog.setAllowClose(true);
+		Display.getDefault().asyncExec( new Runnable() {
+			public void run(){
+				if(! shell.isDisposed())
+					shell.dispose();
+			}
+		});
+	}
+	
+	/**
+	 * Releases the dialog of a run that never started or that is over. Must be
+	 * called on the SWT UI thread.
+	 */
+	public void dispose(){
+		if(! shell.isDisposed())
+			shell.dispose();
+	}
+
+}
@@ -0,0 +1,362 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records what the stages of a run cost: wall time, CPU time, the bytes
+ * allocated by the thread running the stage and the peak heap. The report is
+ * written as JSON next to the outputs and summarised as a table.
+ *
+ * CPU time and allocated bytes are measured for the thread running the stage,
+ * so they are exact even if stages run concurrently. Allocated bytes are only
+ * known on JVMs that provide com.sun.management.ThreadMXBean. The heap peak is
+ * the highest heap use seen since the run started, taken when the stage
+ * finished. The heap is sampled for every open report on a shared thread, and
+ * when stages start and finish; the peak usage of the JVM's pools is neither
+ * used nor reset, so concurrent runs do not clear each other's peak. The heap
+ * itself is shared by everything running in the JVM at the time.
+ */
+public class RunReport {
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final Method allocatedBytes = findAllocatedBytes();
+
+	private static final long SAMPLE_MILLIS = 50;
+	// the reports being sampled; a report that is never closed is dropped once it is collected
+	private static final Map<RunReport, Boolean> open = new WeakHashMap<RunReport, Boolean>();
+	private static Thread sampler;
+
+	private final String name;
+	private final long started = System.nanoTime();
+	private final List<Measurement> measurements = new ArrayList<Measurement>();
+	private final AtomicLong peak = new AtomicLong();
+
+	/**
+	 * What one stage cost. Values that could not be measured are -1.
+	 */
+	public static class Measurement {
+
+		private final String stage;
+		private final long startNanos;
+		private final long startCpu;
+		private final long startAllocated;
+		private String status;
+		private long wallNanos = -1;
+		private long cpuNanos = -1;
+		private long allocated = -1;
+		private long peakHeap = -1;
+
+		private Measurement(String stage){
+			this.stage = stage;
+			this.startNanos = System.nanoTime();
+			this.startCpu = currentThreadCpuTime();
+			this.startAllocated = currentThreadAllocatedBytes();
+		}
+
+		public String getStage() {
+			return stage;
+		}
+
+		public String getStatus() {
+			return status;
+		}
+
+		public long getWallNanos() {
+			return wallNanos;
+		}
+
+		public long getCpuNanos() {
+			return cpuNanos;
+		}
+
+		public long getAllocatedBytes() {
+			return allocated;
+		}
+
+		public long getPeakHeapBytes() {
+			return peakHeap;
+		}
+	}
+
+	/**
+	 * Starts a report and samples the heap for it until it is closed.
+	 * @param name the name of the run, usually the schema name
+	 */
+	public RunReport(String name){
+		this.name = name;
+		sample();
+		synchronized(open){
+			open.put(this, Boolean.TRUE);
+			if(null == sampler){
+				sampler = new Thread(new Runnable(){
+					public void run() {
+						sampleOpenReports();
+					}
+				}, "vesta-heap-sampler");
+				sampler.setDaemon(true);
+				sampler.start();
+			}
+		}
+	}
+
+	/**
+	 * Stops sampling the heap for this report. The peak is kept.
+	 */
+	public void close(){
+		sample();
+		synchronized(open){
+			open.remove(this);
+		}
+	}
+
+	/**
+	 * Samples the heap for the open reports until there are none left.
+	 */
+	private static void sampleOpenReports(){
+		try {
+			while(sampleOnce())
+				Thread.sleep(SAMPLE_MILLIS);
+		} catch (InterruptedException e) {
+			synchronized(open){
+				sampler = null;
+			}
+		}
+	}
+
+	/**
+	 * @return false if there was no open report, the sampler has stopped then
+	 */
+	private static boolean sampleOnce(){
+		List<RunReport> reports;
+		synchronized(open){
+			if(open.isEmpty()){
+				sampler = null;
+				return false;
+			}
+			reports = new ArrayList<RunReport>(open.keySet());
+		}
+		long used = heapUsed();
+		for(RunReport report : reports)
+			report.update(used);
+		return true;
+	}
+
+	private void sample(){
+		update(heapUsed());
+	}
+
+	private void update(long used){
+		for(long max = peak.get(); used > max && ! peak.compareAndSet(max, used); max = peak.get());
+	}
+
+	/**
+	 * Starts measuring a stage on the current thread.
+	 * @param stage the name of the stage
+	 * @return the measurement to pass to {@link #finish(Measurement, String)} on the same thread
+	 */
+	public Measurement start(String stage){
+		sample();
+		return new Measurement(stage);
+	}
+
+	/**
+	 * Ends measuring a stage and adds it to the report.
+	 * @param m the measurement returned by {@link #start(String)}
+	 * @param status how the stage ended: run, failed or cancelled
+	 */
+	public void finish(Measurement m, String status){
+		m.status = status;
+		m.wallNanos = System.nanoTime() - m.startNanos;
+		long cpu = currentThreadCpuTime();
+		if(cpu >= 0 && m.startCpu >= 0)
+			m.cpuNanos = cpu - m.startCpu;
+		long bytes = currentThreadAllocatedBytes();
+		if(bytes >= 0 && m.startAllocated >= 0)
+			m.allocated = bytes - m.startAllocated;
+		sample();
+		m.peakHeap = peak.get();
+		synchronized(measurements){
+			measurements.add(m);
+		}
+	}
+
+	/**
+	 * Adds a stage that was not run because it was up to date.
+	 * @param stage the name of the stage
+	 */
+	public void skipped(String stage){
+		Measurement m = new Measurement(stage);
+		m.status = "skipped";
+		synchronized(measurements){
+			measurements.add(m);
+		}
+	}
+
+	/**
+	 * @return the measurements in the order the stages ended
+	 */
+	public List<Measurement> getMeasurements(){
+		synchronized(measurements){
+			return new ArrayList<Measurement>(measurements);
+		}
+	}
+
+	/**
+	 * @return the report as JSON
+	 */
+	public String toJSON(){
+		StringBuilder json = new StringBuilder();
+		json.append("{\"name\":").append(quote(name));
+		json.append(",\"wallMillis\":").append(millis(System.nanoTime() - started));
+		json.append(",\"peakHeapBytes\":").append(getPeakHeapBytes());
+		json.append(",\"stages\":[");
+		List<Measurement> list = getMeasurements();
+		for(int i = 0; i < list.size(); i++){
+			Measurement m = list.get(i);
+			if(i > 0)
+				json.append(',');
+			json.append("\n{\"stage\":").append(quote(m.stage));
+			json.append(",\"status\":").append(quote(m.status));
+			json.append(",\"wallMillis\":").append(millis(m.wallNanos));
+			json.append(",\"cpuMillis\":").append(millis(m.cpuNanos));
+			json.append(",\"allocatedBytes\":").append(m.allocated);
+			json.append(",\"peakHeapBytes\":").append(m.peakHeap);
+			json.append('}');
+		}
+		json.append("\n]}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the report as JSON.
+	 * @param file the file to write
+	 * @throws IOException if the file could not be written
+	 */
+	public void write(File file) throws IOException{
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the report as JSON.
+	 * @param out the stream to write to, it is left open
+	 * @throws IOException if the report could not be written
+	 */
+	public void write(OutputStream out) throws IOException{
+		Writer writer = new OutputStreamWriter(out, "UTF-8");
+		writer.write(toJSON());
+		writer.flush();
+	}
+
+	/**
+	 * @return the report as a table, one line per stage
+	 */
+	public List<String> getSummary(){
+		List<String> lines = new ArrayList<String>();
+		String format = "%-28s %-9s %10s %10s %12s %10s";
+		lines.add(String.format(format, "stage", "status", "wall ms", "cpu ms", "alloc MB", "heap MB"));
+		for(Measurement m : getMeasurements()){
+			lines.add(String.format(format, m.stage, m.status,
+					number(millis(m.wallNanos)), number(millis(m.cpuNanos)),
+					megabytes(m.allocated), megabytes(m.peakHeap)));
+		}
+		lines.add(String.format(format, "total", "", number(millis(System.nanoTime() - started)), "", "", megabytes(getPeakHeapBytes())));
+		return lines;
+	}
+
+	/**
+	 * @return the highest heap use seen since the run started
+	 */
+	public long getPeakHeapBytes(){
+		return peak.get();
+	}
+
+	private static long millis(long nanos){
+		return nanos < 0 ? -1 : nanos / 1000000L;
+	}
+
+	private static String number(long value){
+		return value < 0 ? "-" : Long.toString(value);
+	}
+
+	private static String megabytes(long bytes){
+		return bytes < 0 ? "-" : String.format("%.1f", bytes / (1024.0 * 1024.0));
+	}
+
+	private static long heapUsed(){
+		long used = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() == MemoryType.HEAP && pool.isValid() && null != pool.getUsage())
+				used += pool.getUsage().getUsed();
+		}
+		return used;
+	}
+
+	private static long currentThreadCpuTime(){
+		try {
+			if(threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled())
+				return threads.getCurrentThreadCpuTime();
+		} catch (UnsupportedOperationException e) {
+			// not measured
+		}
+		return -1;
+	}
+
+	private static long currentThreadAllocatedBytes(){
+		if(null == allocatedBytes)
+			return -1;
+		try {
+			return ((Long) allocatedBytes.invoke(threads, Thread.currentThread().getId())).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Looks up com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long),
+	 * which not every JVM provides.
+	 */
+	private static Method findAllocatedBytes(){
+		try {
+			Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+			if(! sunBean.isInstance(threads))
+				return null;
+			return sunBean.getMethod("getThreadAllocatedBytes", long.class);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static String quote(String value){
+		StringBuilder json = new StringBuilder("\"");
+		for(char c : String.valueOf(value).toCharArray()){
+			if(c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if(c < 0x20)
+				json.append(String.format("\\u%04x", (int) c));
+			else
+				json.append(c);
+		}
+		return json.append('"').toString();
+	}
+
+}
@@ -0,0 +1,119 @@
+package org.tei.vesta;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Finds the schemaSpec elements of an ODD file. A file without any schemaSpec
+ * is not treated as an ODD but only offered for plain transformations.
+ *
+ * The file is streamed instead of being read into a tree, so that large files
+ * need no memory. Reading stops early where the rest of the file cannot hold a
+ * schemaSpec: a file whose root is neither TEI nor teiCorpus is rejected after
+ * its first element, and a TEI file is read up to the end of its text.
+ */
+public class SchemaSpecScanner {
+
+	private static final String TEI_NS = "http://www.tei-c.org/ns/1.0";
+
+	private static final XMLInputFactory factory = createFactory();
+
+	/**
+	 * Reads the input file and collects the idents of all its schemaSpecs.
+	 * @param file the input file
+	 * @return the idents in document order, an empty list if the file is not an ODD
+	 * @throws Exception if the file could not be read
+	 */
+	public static List<String> scan(File file) throws Exception {
+		return scan(file, null);
+	}
+
+	/**
+	 * Reads the input file and collects the idents of all its schemaSpecs.
+	 * @param file the input file
+	 * @param cancellation stops the scan, may be null
+	 * @return the idents in document order, an empty list if the file is not an ODD
+	 * @throws IOException if the file could not be read
+	 * @throws XMLStreamException if the file is not well-formed
+	 * @throws java.util.concurrent.CancellationException if the scan was cancelled
+	 */
+	public static List<String> scan(File file, CancellationToken cancellation) throws IOException, XMLStreamException {
+		List<String> idents = new ArrayList<String>();
+
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			XMLStreamReader reader;
+			synchronized(factory){
+				reader = factory.createXMLStreamReader(file.toURI().toString(), in);
+			}
+			try {
+				// the depth of the text element of a TEI root, 0 if there is none
+				int textDepth = 0;
+				int depth = 0;
+				int events = 0;
+				while(reader.hasNext()){
+					int event = reader.next();
+					if(null != cancellation && ++events % 1024 == 0)
+						cancellation.throwIfCancelled();
+
+					if(event == XMLStreamConstants.START_ELEMENT){
+						depth++;
+						String name = reader.getLocalName();
+						if(depth == 1 && ! isTEIRoot(reader))
+							break;
+						if(depth == 2 && name.equals("text") && isTEI(reader))
+							textDepth = depth;
+						// schemaSpecs in examples are not in the TEI namespace
+						if(name.equals("schemaSpec") && isTEI(reader)){
+							String ident = reader.getAttributeValue(null, "ident");
+							idents.add(null == ident ? "" : ident);
+						}
+					} else if(event == XMLStreamConstants.END_ELEMENT){
+						// the schemaSpecs are part of the text, nothing after it holds one
+						if(depth == textDepth)
+							break;
+						depth--;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			in.close();
+		}
+
+		return idents;
+	}
+
+	private static boolean isTEIRoot(XMLStreamReader reader){
+		String name = reader.getLocalName();
+		return name.equals("TEI") || name.equals("teiCorpus");
+	}
+
+	private static boolean isTEI(XMLStreamReader reader){
+		String ns = reader.getNamespaceURI();
+		return null == ns || ns.length() == 0 || TEI_NS.equals(ns);
+	}
+
+	private static XMLInputFactory createFactory(){
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		// the DTD and the entities are not needed to find the schemaSpecs and
+		// must not be fetched, the catalogs do not reach StAX
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+		return factory;
+	}
+
+}
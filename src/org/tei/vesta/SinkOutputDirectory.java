@@ -0,0 +1,103 @@
+package org.tei.vesta;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.thaiopensource.relaxng.output.OutputDirectory;
+import com.thaiopensource.xml.out.CharRepertoire;
+import com.thaiopensource.xml.util.EncodingMap;
+
+/**
+ * Lets Trang write its output into an {@link OutputSink} instead of the file
+ * system. Files are named like {@link com.thaiopensource.relaxng.output.LocalOutputDirectory}
+ * names them: the main schema gets the given path, every other schema the
+ * name of its source with the extension of the output, next to the main one.
+ */
+public class SinkOutputDirectory implements OutputDirectory {
+
+	private final OutputSink sink;
+	private final String dir;
+	private final String extension;
+	private final int lineLength;
+	private String encoding;
+	private int indent;
+	// source uri -> file name
+	private final Map<String, String> names = new HashMap<String, String>();
+	private final Set<String> used = new HashSet<String>();
+
+	/**
+	 * @param sink the sink the files are written to
+	 * @param mainSourceUri the uri of the main schema
+	 * @param mainPath the path of the output of the main schema in the sink
+	 * @param extension the extension of the other outputs, e.g. xsd
+	 * @param encoding the default encoding
+	 * @param lineLength the preferred line length
+	 * @param indent the indent
+	 */
+	public SinkOutputDirectory(OutputSink sink, String mainSourceUri, String mainPath, String extension, String encoding, int lineLength, int indent){
+		this.sink = sink;
+		int slash = mainPath.lastIndexOf('/');
+		this.dir = mainPath.substring(0, slash + 1);
+		this.extension = "." + extension;
+		this.encoding = encoding;
+		this.lineLength = lineLength;
+		this.indent = indent;
+
+		String mainName = mainPath.substring(slash + 1);
+		names.put(mainSourceUri, mainName);
+		used.add(mainName);
+	}
+
+	public Stream open(String sourceUri, String encoding) throws IOException {
+		if(null == encoding)
+			encoding = this.encoding;
+		String javaEncoding = EncodingMap.getJavaName(encoding);
+		OutputStreamWriter writer = new OutputStreamWriter(sink.open(dir + getName(sourceUri)), javaEncoding);
+		return new Stream(new BufferedWriter(writer), encoding, CharRepertoire.getInstance(javaEncoding));
+	}
+
+	public String reference(String fromSourceUri, String toSourceUri) {
+		return getName(toSourceUri);
+	}
+
+	private synchronized String getName(String sourceUri){
+		String name = names.get(sourceUri);
+		if(null == name){
+			String base = sourceUri.substring(sourceUri.lastIndexOf('/') + 1);
+			int dot = base.lastIndexOf('.');
+			if(dot > 0)
+				base = base.substring(0, dot);
+			name = base + extension;
+			for(int i = 1; ! used.add(name); i++)
+				name = base + i + extension;
+			names.put(sourceUri, name);
+		}
+		return name;
+	}
+
+	public String getLineSeparator() {
+		return System.getProperty("line.separator");
+	}
+
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	public int getIndent() {
+		return indent;
+	}
+
+	public void setIndent(int indent) {
+		this.indent = indent;
+	}
+
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single step of the Vesta pipeline, e.g. odd2relax or the XSD generation.
+ * A stage is run by a {@link StageScheduler} as soon as all the stages it
+ * depends on have finished.
+ * 
+ * A stage that declares its outputs and a fingerprint of its inputs is skipped
+ * when a {@link BuildManifest} shows that it already ran with the same inputs.
+ * Stages depending on such a stage therefore have to read its outputs from
+ * disk rather than rely on state it leaves in memory.
+ */
+public abstract class Stage {
+
+	private final String name;
+	private final List<Stage> dependencies;
+	private String fingerprint;
+	private List<File> outputs = Collections.emptyList();
+	private volatile boolean failed;
+	
+	/**
+	 * @param name the name used in messages
+	 * @param dependencies the stages that have to finish before this one starts
+	 */
+	public Stage(String name, Stage... dependencies){
+		this.name = name;
+		this.dependencies = Collections.unmodifiableList(Arrays.asList(dependencies));
+	}
+	
+	/**
+	 * Does the actual work.
+	 * @throws Exception if the stage failed. This stops the pipeline.
+	 */
+	protected abstract void execute() throws Exception;
+	
+	/**
+	 * Marks the stage as failed without stopping the pipeline, for errors that
+	 * are reported but must not keep the other outputs from being created. A
+	 * failed stage is not recorded in the {@link BuildManifest}, so it runs
+	 * again next time.
+	 */
+	protected void fail(){
+		failed = true;
+	}
+	
+	/**
+	 * @return true if the stage reported an error through {@link #fail()}
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return the name of the stage
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the stages that have to finish before this one starts
+	 */
+	public List<Stage> getDependencies() {
+		return dependencies;
+	}
+	
+	/**
+	 * Declares the files the stage creates and a fingerprint of everything they
+	 * are created from, which allows to skip the stage when nothing changed.
+	 * @param fingerprint a hash of the inputs and options of the stage, see {@link ContentHash}
+	 * @param outputs the files the stage creates
+	 * @return the stage
+	 */
+	public Stage produces(String fingerprint, File... outputs){
+		this.fingerprint = fingerprint;
+		this.outputs = Collections.unmodifiableList(Arrays.asList(outputs));
+		return this;
+	}
+
+	/**
+	 * @return true if the stage declared its outputs and may be skipped
+	 */
+	public boolean isIncremental() {
+		return null != fingerprint;
+	}
+
+	/**
+	 * @return the fingerprint of the inputs, null if the stage is not incremental
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @return the files the stage creates
+	 */
+	public List<File> getOutputs() {
+		return outputs;
+	}
+	
+	public String toString(){
+		return name;
+	}
+	
+}
@@ -0,0 +1,314 @@
+package org.tei.vesta;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a set of {@link Stage}s as a dependency graph. Every stage is started as
+ * soon as the stages it depends on have finished, so that independent stages
+ * run concurrently.
+ * 
+ * If a stage fails no further stages are started. The stages that are already
+ * running are allowed to finish and the first failure is thrown from
+ * {@link #run()}.
+ * 
+ * With a {@link BuildManifest} incremental stages that are up to date are
+ * skipped, and so are the stages that only exist to feed skipped stages.
+ * Incremental stages that finish successfully are recorded in the manifest.
+ * 
+ * With a {@link CancellationToken} no further stages are started once the token
+ * is cancelled. {@link #run()} returns at once with a
+ * {@link CancellationException}; the running stages are interrupted and left to
+ * their daemon threads.
+ */
+public class StageScheduler {
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+	
+	private final int threads;
+	private final List<Stage> stages = new ArrayList<Stage>();
+	private BuildManifest manifest;
+	private boolean skipUpToDate;
+	private CancellationToken cancellation;
+	private RunReport report;
+	
+	/**
+	 * @param threads the maximum number of stages to run at the same time
+	 */
+	public StageScheduler(int threads){
+		if(threads < 1)
+			throw new IllegalArgumentException("At least one thread is needed to run the stages.");
+		this.threads = threads;
+	}
+	
+	/**
+	 * Adds a stage. Its dependencies have to be added before.
+	 * @param stage the stage
+	 * @return the stage, so that it can be used as a dependency
+	 */
+	public <T extends Stage> T add(T stage){
+		for(Stage dependency : stage.getDependencies()){
+			if(! stages.contains(dependency))
+				throw new IllegalArgumentException("Stage " + stage + " depends on " + dependency + " which has not been added.");
+		}
+		stages.add(stage);
+		return stage;
+	}
+	
+	/**
+	 * @param manifest the manifest incremental stages are checked against and recorded in
+	 * @param skipUpToDate false to run all stages but still record them
+	 */
+	public void setManifest(BuildManifest manifest, boolean skipUpToDate){
+		this.manifest = manifest;
+		this.skipUpToDate = skipUpToDate;
+	}
+	
+	/**
+	 * @param cancellation the token that stops the run, null if it cannot be stopped
+	 */
+	public void setCancellationToken(CancellationToken cancellation){
+		this.cancellation = cancellation;
+	}
+	
+	/**
+	 * @param report the report the stages are measured in, null to not measure them
+	 */
+	public void setReport(RunReport report){
+		this.report = report;
+	}
+	
+	/**
+	 * Called for every stage that is not run because its outputs are up to date.
+	 * @param stage the stage
+	 */
+	protected void skipped(Stage stage){
+	}
+	
+	/**
+	 * Decides which stages have to run. An incremental stage runs if it is not up
+	 * to date. Any other stage runs if a stage depending on it runs or, if no
+	 * stage depends on it, if it has no dependencies or one of them runs.
+	 */
+	private Set<Stage> plan(){
+		Set<Stage> run = new HashSet<Stage>();
+		if(null == manifest || ! skipUpToDate){
+			run.addAll(stages);
+			return run;
+		}
+		
+		Map<Stage, List<Stage>> dependents = new HashMap<Stage, List<Stage>>();
+		for(Stage stage : stages){
+			dependents.put(stage, new ArrayList<Stage>());
+			for(Stage dependency : stage.getDependencies())
+				dependents.get(dependency).add(stage);
+		}
+		
+		// dependents are added after their dependencies, so walk backwards
+		for(int i = stages.size() - 1; i >= 0; i--){
+			Stage stage = stages.get(i);
+			if(stage.isIncremental()){
+				if(! manifest.isUpToDate(stage))
+					run.add(stage);
+			} else if(! dependents.get(stage).isEmpty()){
+				for(Stage dependent : dependents.get(stage)){
+					if(run.contains(dependent))
+						run.add(stage);
+				}
+			}
+		}
+		
+		for(Stage stage : stages){
+			if(stage.isIncremental() || ! dependents.get(stage).isEmpty())
+				continue;
+			boolean needed = stage.getDependencies().isEmpty();
+			for(Stage dependency : stage.getDependencies())
+				needed |= run.contains(dependency);
+			if(needed)
+				run.add(stage);
+		}
+		
+		return run;
+	}
+	
+	/**
+	 * Runs all stages and waits until they are finished.
+	 * @throws Exception the exception of the first stage that failed
+	 * @throws CancellationException if the run was cancelled
+	 */
+	public void run() throws Exception{
+		if(stages.isEmpty())
+			return;
+		checkCancelled();
+		
+		Set<Stage> planned = plan();
+		List<Stage> pending = new ArrayList<Stage>();
+		Set<Stage> finished = new HashSet<Stage>();
+		for(Stage stage : stages){
+			if(planned.contains(stage)){
+				pending.add(stage);
+			} else {
+				finished.add(stage);
+				if(null != report)
+					report.skipped(stage.getName());
+				skipped(stage);
+			}
+		}
+		if(pending.isEmpty())
+			return;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, pending.size()), new ThreadFactory(){
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "vesta-stage-" + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CompletionService<Stage> completion = new ExecutorCompletionService<Stage>(executor);
+		// the stages work for the job of the calling thread
+		final JobContext context = JobContext.current();
+		
+		int running = 0;
+		Exception failure = null;
+		
+		// a cancellation interrupts the wait for the next stage
+		Thread caller = Thread.currentThread();
+		if(null != cancellation)
+			cancellation.register(caller);
+		
+		try {
+			while(true){
+				// start everything that is ready
+				if(null == failure){
+					for(Iterator<Stage> it = pending.iterator(); it.hasNext(); ){
+						final Stage stage = it.next();
+						if(finished.containsAll(stage.getDependencies())){
+							it.remove();
+							// a stage that fails half way must not look up to date
+							if(null != manifest)
+								manifest.forget(stage);
+							completion.submit(new Runnable(){
+								public void run() {
+									JobContext previous = JobContext.setCurrent(context);
+									RunReport.Measurement measurement = null;
+									String status = "failed";
+									try {
+										checkCancelled();
+										if(null != report)
+											measurement = report.start(stage.getName());
+										stage.execute();
+										// files a stage leaves behind must not fill the workspace
+										if(null != context)
+											context.checkTempDir();
+										status = stage.isFailed() ? "failed" : "run";
+									} catch (CancellationException e) {
+										status = "cancelled";
+										throw e;
+									} catch (RuntimeException e) {
+										throw e;
+									} catch (Exception e) {
+										throw new StageException(e);
+									} finally {
+										if(null != measurement)
+											report.finish(measurement, status);
+										JobContext.setCurrent(previous);
+									}
+								}
+							}, stage);
+							running++;
+						}
+					}
+				}
+				
+				if(running == 0)
+					break;
+				
+				// wait for the next stage to finish
+				try {
+					checkCancelled();
+					Stage stage = completion.take().get();
+					finished.add(stage);
+					if(null != manifest && ! stage.isFailed())
+						manifest.record(stage);
+				} catch (InterruptedException e) {
+					checkCancelled();
+					throw e;
+				} catch (ExecutionException e) {
+					if(null == failure){
+						Throwable cause = e.getCause();
+						if(cause instanceof StageException)
+							cause = cause.getCause();
+						if(cause instanceof Exception)
+							failure = (Exception) cause;
+						else
+							throw (Error) cause;
+					}
+				}
+				running--;
+			}
+		} finally {
+			if(null != cancellation)
+				cancellation.unregister(caller);
+			executor.shutdownNow();
+			// after a failure or a cancellation the caller disposes of the
+			// workspace and the bundle the stages still running write to
+			awaitTermination(executor);
+		}
+		
+		if(null != failure)
+			throw failure;
+	}
+	
+	/**
+	 * Waits until the stages that are still running ended. A stage that was
+	 * interrupted stops at its next check for a cancellation. An interrupt
+	 * of the waiting thread is kept for the caller.
+	 */
+	private static void awaitTermination(ExecutorService executor){
+		boolean interrupted = false;
+		while(true){
+			try {
+				if(executor.awaitTermination(1, TimeUnit.MINUTES))
+					break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/**
+	 * @throws CancellationException if the run was cancelled
+	 */
+	private void checkCancelled(){
+		if(null != cancellation)
+			cancellation.throwIfCancelled();
+	}
+	
+	/**
+	 * Carries checked exceptions out of a stage.
+	 */
+	private static class StageException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		StageException(Exception cause){
+			super(cause);
+		}
+	}
+	
+}
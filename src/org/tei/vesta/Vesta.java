@@ -3,13 +3,17 @@ package org.tei.vesta;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.CLabel;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Image;
@@ -31,10 +35,6 @@ import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.TabFolder;
 import org.eclipse.swt.widgets.TabItem;
 import org.eclipse.swt.widgets.Text;
-import org.tei.utils.XMLUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 import com.cloudgarden.resource.SWTResourceManager;
 
@@ -53,15 +53,23 @@ import com.cloudgarden.resource.SWTResourceManager;
 */
 public class Vesta extends org.eclipse.swt.widgets.Composite {
 
+	// the entry of the schema combo that generates every schemaSpec of an ODD
+	private static final String ALL_SCHEMAS = "(all schemas)";
+	// the entry of the language combo that generates the documentation in every language
+	private static final String ALL_LANGUAGES = "(all languages)";
+
 	private String selectedFileName;
 	private String selectedOutputDir;
 	
 	private boolean oddFileLoaded = true;
+	private CancellationToken inputFileScan;
+	private FileWatcher watcher;
 	
 	private Menu menu1;
 	private CLabel selectedOutputDirLabel;
 	private CLabel selectedInputFileLabel;
 	private Button goButton;
+	private Button cbWatch;
 	private Button selectOutputDir;
 	private Button selectInputFile;
 	private Button cbCreateXSD;
@@ -84,6 +92,7 @@ public class Vesta extends org.eclipse.swt.widgets.Composite {
 	private Button cbTEIVersion;
 	private Button cbDebug;
 	private Button cbCompile;
+	private Button cbIncremental;
 	private Composite composite1;
 	private Button cbDocTEI;
 	private Button cbCreateRNG;
@@ -197,6 +206,7 @@ public class Vesta extends org.eclipse.swt.widgets.Composite {
 								combLanguage.add("Italiano");
 								combLanguage.add("日本語");
 								combLanguage.add("中文");
+								combLanguage.add(ALL_LANGUAGES);
 								combLanguage.select(0);
 							}
 							{
@@ -308,6 +318,13 @@ public class Vesta extends org.eclipse.swt.widgets.Composite {
 								cbParameterized.setToolTipText("create a DTD suitable for customizing in a document DTD subset");
 								cbParameterized.setEnabled(false);
 							}
+							{
+								cbIncremental = new Button(composite1, SWT.CHECK | SWT.LEFT);
+								cbIncremental.setText("skip unchanged");
+								cbIncremental.setBounds(12, 72, 160, 30);
+								cbIncremental.setSelection(true);
+								cbIncremental.setToolTipText("do not regenerate output files whose inputs and options did not change since the last run");
+							}
 							{
 								textPatternPrefix = new Text(composite1, SWT.NONE);
 								textPatternPrefix.setBounds(242, 42, 230, 22);
@@ -337,6 +354,23 @@ public class Vesta extends org.eclipse.swt.widgets.Composite {
 					}
 				} );
 			}
+			{
+				cbWatch = new Button(this, SWT.CHECK | SWT.LEFT);
+				cbWatch.setText("watch");
+				cbWatch.setBounds(300, 306, 100, 22);
+				cbWatch.setToolTipText("after Go, run again whenever the input file or a file it includes is saved");
+				cbWatch.addSelectionListener(new SelectionAdapter() {
+					public void widgetSelected(SelectionEvent evt) {
+						if(! cbWatch.getSelection())
+							stopWatching();
+					}
+				} );
+				cbWatch.addDisposeListener(new DisposeListener(){
+					public void widgetDisposed(DisposeEvent e) {
+						stopWatching();
+					}
+				});
+			}
 			{
 				InputOutputGroup = new Group(this, SWT.NONE);
 				InputOutputGroup.setLayout(null);
@@ -358,82 +392,10 @@ public class Vesta extends org.eclipse.swt.widgets.Composite {
 							if(null == selectedFileName)
 								return;
 							selectedInputFileLabel.setText(selectedFileName);
+							stopWatching();
 							
-							// read input file in DomDocument and search for schemas
-							Document doc = null;
-							try {
-								doc = XMLUtils.readInputFileIntoJAXPDoc(new File(selectedFileName));
-								NodeList list = doc.getDocumentElement().getElementsByTagName("schemaSpec");
-								
-								if(list.getLength() > 0){
-									java.util.List<String> idents = new ArrayList<String>();
-									for(int i = 0; i < list.getLength(); i++){
-										idents.add(((Element)list.item(0)).getAttribute("ident"));
-									}
-									combSchema.setItems(idents.toArray(new String[]{}));
-									combSchema.select(0);
-								} else {
-									throw new IllegalArgumentException("Could not find a schemaSpec in the input file.");
-								}
-								// enable potential disabled gui elements
-								cbCreateDTD.setEnabled(true);
-								cbCreateRNG.setEnabled(true);
-								cbCreateXSD.setEnabled(true);
-								cbCompile.setEnabled(true);
-								cbDebug.setEnabled(true);
-								cbDocTEI.setEnabled(true);
-								combLanguage.setEnabled(true);
-								cbParameterized.setEnabled(true);
-								cbTEIVersion.setEnabled(true);
-								textPatternPrefix.setEnabled(true);
-								selectProfileCombo_oddTrans.setEnabled(true);
-								availableFormatsList_oddTrans.setEnabled(true);
-								combSchema.setEnabled(true);
-								
-								// disable gui elements
-								selectProfileCombo_xmlTrans.setEnabled(false);
-								availableFormatsList_xmlTrans.setEnabled(false);
-								
-								// chose odd file options
-								optionsTabFolder.setSelection(1);
-								
-								
-								// lets create a compiled odd
-								oddFileLoaded = true;
-							} catch (IllegalArgumentException e) {
-								// if no schemaSpec was found .. deactivate everything but docx and html
-								cbCreateDTD.setEnabled(false);
-								cbCreateRNG.setEnabled(false);
-								cbCreateXSD.setEnabled(false);
-								cbCompile.setEnabled(false);
-								cbDebug.setEnabled(false);
-								cbDocTEI.setEnabled(false);
-								combLanguage.setEnabled(false);
-								cbParameterized.setEnabled(false);
-								cbTEIVersion.setEnabled(false);
-								textPatternPrefix.setEnabled(false);
-								selectProfileCombo_oddTrans.setEnabled(false);
-								availableFormatsList_oddTrans.setEnabled(false);
-								combSchema.setEnabled(false);
-								
-								// lets not create a compiled odd but only allow for the transformation
-								oddFileLoaded = false;
-								
-								selectProfileCombo_xmlTrans.setEnabled(true);
-								availableFormatsList_xmlTrans.setEnabled(true);
-								
-								// select correct tab
-								optionsTabFolder.setSelection(0);
-								
-								// preselect docX and HTML creation
-							} catch (Exception e) {
-								selectedFileName = null;
-								selectedInputFileLabel.setText("");
-								
-								MessageBox mb = new MessageBox(Display.getCurrent().getActiveShell());
-								mb.setMessage(e.getMessage());
-								mb.open();
-							}
+							// search for schemas without blocking the window
+							scanInputFile(selectedFileName);
 							
 
 							
@@ -493,35 +455,46 @@ public class Vesta extends org.eclipse.swt.widgets.Composite {
 		}
 	}
 	
-	private void loadProfiles(Combo profileCombo, List formatsList) {
-		File applicationsDir = new File(PropertiesProvider.getInstance().getStylesheetDir() + File.separator + "profiles");
-		if(applicationsDir.isDirectory()){
-			profileCombo.add("default");
-			profileCombo.select(0);
-			updateAvailableFormats(formatsList, profileCombo);
-			for(File dir : applicationsDir.listFiles()){
-				if(dir.isDirectory() && ! dir.getName().startsWith(".") && ! dir.getName().equals("default")){
-					profileCombo.add(dir.getName());
-				}
+	/**
+	 * Fills the combo with the profiles once they are indexed and whenever they
+	 * change. The selection is kept if the profile still exists.
+	 */
+	private void loadProfiles(final Combo profileCombo, final List formatsList) {
+		final Display display = getDisplay();
+		final Runnable listener = new Runnable(){
+			public void run() {
+				if(display.isDisposed())
+					return;
+				display.asyncExec(new Runnable(){
+					public void run() {
+						if(profileCombo.isDisposed())
+							return;
+						String selected = profileCombo.getText();
+						java.util.List<String> profiles = ProfileIndex.getInstance().getProfiles();
+						profileCombo.setItems(profiles.toArray(new String[profiles.size()]));
+						int index = profiles.indexOf(selected);
+						profileCombo.select(index >= 0 ? index : 0);
+						updateAvailableFormats(formatsList, profileCombo);
+					}
+				});
 			}
-		}
-		
+		};
+		ProfileIndex.getInstance().addChangeListener(listener);
+		profileCombo.addDisposeListener(new DisposeListener(){
+			public void widgetDisposed(DisposeEvent e) {
+				ProfileIndex.getInstance().removeChangeListener(listener);
+			}
+		});
 	}
 
 	private void updateAvailableFormats(List formatList, Combo combo){
+		// keep the selected formats that the profile still offers
+		java.util.List<String> selected = Arrays.asList(formatList.getSelection());
 		formatList.removeAll();
-		File dir = new File(PropertiesProvider.getInstance().getStylesheetDir() + File.separator + "profiles" + File.separator + combo.getText());
-		if(dir.isDirectory()){
-			for(File format: dir.listFiles()){
-				if(! format.getName().startsWith(".") && format.isDirectory()){
-					for(File file : format.listFiles()){
-						if(file.getName().equals("to.xsl")){
-							formatList.add(format.getName());
-							break;
-						}
-					}
-				}
-			}
+		for(String format : ProfileIndex.getInstance().getFormats(combo.getText())){
+			formatList.add(format);
+			if(selected.contains(format))
+				formatList.select(formatList.getItemCount() - 1);
 		}
 	}
 	
@@ -598,6 +571,139 @@ public class Vesta extends org.eclipse.swt.widgets.Composite {
 		return cbParameterized;
 	}
 	
+	public Button getCbIncremental() {
+		return cbIncremental;
+	}
+	
+	public Button getCbWatch() {
+		return cbWatch;
+	}
+	
+	/**
+	 * Searches the selected input file for schemaSpecs on a background thread,
+	 * so that large files do not block the window. A scan still running for a
+	 * file selected before is cancelled.
+	 * @param fileName the selected input file
+	 */
+	private void scanInputFile(final String fileName) {
+		if(null != inputFileScan)
+			inputFileScan.cancel();
+		final CancellationToken scan = new CancellationToken();
+		inputFileScan = scan;
+		goButton.setEnabled(false);
+		
+		final Display display = getDisplay();
+		Thread thread = new Thread(new Runnable(){
+			public void run() {
+				java.util.List<String> idents = null;
+				Exception error = null;
+				try {
+					idents = SchemaSpecScanner.scan(new File(fileName), scan);
+				} catch (CancellationException e) {
+					return;
+				} catch (Exception e) {
+					error = e;
+				}
+				
+				final java.util.List<String> result = idents;
+				final Exception failure = error;
+				if(display.isDisposed())
+					return;
+				display.asyncExec(new Runnable(){
+					public void run() {
+						// another file was selected in the meantime
+						if(isDisposed() || scan != inputFileScan)
+							return;
+						inputFileScan = null;
+						inputFileScanned(result, failure);
+					}
+				});
+			}
+		}, "vesta-scan");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Enables the options that fit the selected input file. Runs on the UI thread.
+	 * @param idents the idents of the schemaSpecs of the file
+	 * @param error the error that stopped the scan, null if it succeeded
+	 */
+	private void inputFileScanned(java.util.List<String> idents, Exception error) {
+		goButton.setEnabled(true);
+		if(null != error){
+			selectedFileName = null;
+			selectedInputFileLabel.setText("");
+			
+			MessageBox mb = new MessageBox(getShell());
+			mb.setMessage(null != error.getMessage() ? error.getMessage() : error.toString());
+			mb.open();
+			return;
+		}
+		
+		try {
+			if(! idents.isEmpty()){
+				combSchema.setItems(idents.toArray(new String[]{}));
+				if(idents.size() > 1)
+					combSchema.add(ALL_SCHEMAS);
+				combSchema.select(0);
+			} else {
+				throw new IllegalArgumentException("Could not find a schemaSpec in the input file.");
+			}
+			// enable potential disabled gui elements
+			cbCreateDTD.setEnabled(true);
+			cbCreateRNG.setEnabled(true);
+			cbCreateXSD.setEnabled(true);
+			cbCompile.setEnabled(true);
+			cbDebug.setEnabled(true);
+			cbDocTEI.setEnabled(true);
+			combLanguage.setEnabled(true);
+			cbParameterized.setEnabled(true);
+			cbTEIVersion.setEnabled(true);
+			textPatternPrefix.setEnabled(true);
+			selectProfileCombo_oddTrans.setEnabled(true);
+			availableFormatsList_oddTrans.setEnabled(true);
+			combSchema.setEnabled(true);
+			
+			// disable gui elements
+			selectProfileCombo_xmlTrans.setEnabled(false);
+			availableFormatsList_xmlTrans.setEnabled(false);
+			
+			// chose odd file options
+			optionsTabFolder.setSelection(1);
+			
+			
+			// lets create a compiled odd
+			oddFileLoaded = true;
+		} catch (IllegalArgumentException e) {
+			// if no schemaSpec was found .. deactivate everything but docx and html
+			cbCreateDTD.setEnabled(false);
+			cbCreateRNG.setEnabled(false);
+			cbCreateXSD.setEnabled(false);
+			cbCompile.setEnabled(false);
+			cbDebug.setEnabled(false);
+			cbDocTEI.setEnabled(false);
+			combLanguage.setEnabled(false);
+			cbParameterized.setEnabled(false);
+			cbTEIVersion.setEnabled(false);
+			textPatternPrefix.setEnabled(false);
+			selectProfileCombo_oddTrans.setEnabled(false);
+			availableFormatsList_oddTrans.setEnabled(false);
+			combSchema.setEnabled(false);
+			
+			// lets not create a compiled odd but only allow for the transformation
+			oddFileLoaded = false;
+			
+			selectProfileCombo_xmlTrans.setEnabled(true);
+			availableFormatsList_xmlTrans.setEnabled(true);
+			
+			// select correct tab
+			optionsTabFolder.setSelection(0);
+			
+			// preselect docX and HTML creation
+		}
+	}
+	
 	private void goButtonWidgetSelected(SelectionEvent evt) {
 		// test that input and output parameters are set
 		if  ( null == selectedFileName ||
@@ -610,42 +716,43 @@ public class Vesta extends org.eclipse.swt.widgets.Composite {
 			return;
 		}
 		
-		// start up processor
-		final VestaProcessor proc = new VestaProcessor();
+		stopWatching();
+		RunDialogListener listener = new RunDialogListener();
+		Future<?> run = startRun(listener);
+		if(null != run && cbWatch.getSelection())
+			startWatching(run, listener);
+	}
+	
+	/**
+	 * Starts a run with the selected input, output and options. Runs on the UI thread.
+	 * @param listener the listener of the run
+	 * @return the future of the run, null if Vesta was too busy to start it
+	 */
+	private Future<?> startRun(RunDialogListener listener) {
+		VestaProcessor proc = new VestaProcessor(listener);
 		proc.setOddFile(selectedFileName);
 		proc.setOutputDir(selectedOutputDir);
 		proc.setUseCompiledODD(oddFileLoaded);
+		if(null != getCbIncremental())
+			proc.setIncremental(getCbIncremental().getSelection());
 		if(oddFileLoaded){
-			proc.setSchemaName(combSchema.getItem(combSchema.getSelectionIndex()));
+			String schema = combSchema.getItem(combSchema.getSelectionIndex());
+			if(schema.equals(ALL_SCHEMAS)){
+				proc.setSchemaName(combSchema.getItem(0));
+				proc.setAllSchemas(true);
+			} else
+				proc.setSchemaName(schema);
 			
 			proc.setGenerateDTD(getCbCreateDTD().getSelection());
 			proc.setGenerateRNG(getCbCreateRNG().getSelection());
 			proc.setGenerateXSD(getCbCreateXSD().getSelection());
 			
 			// set language
-			switch( getCombLanguage().getSelectionIndex() ){
-			case 0:
-				proc.setLanguage("en");
-				break;
-			case 1:
-				proc.setLanguage("es");
-				break;
-			case 2:
-				proc.setLanguage("de");
-				break;
-			case 3:
-				proc.setLanguage("fr");
-				break;
-			case 4:
-				proc.setLanguage("it");
-				break;
-			case 5:
-				proc.setLanguage("ja");
-				break;
-			case 6:
-				proc.setLanguage("zh-tw");
-				break;
-			}
+			int languageIndex = getCombLanguage().getSelectionIndex();
+			if(languageIndex >= VestaOptions.LANGUAGES.length)
+				proc.setDocumentationLanguages(Arrays.asList(VestaOptions.LANGUAGES));
+			else if(languageIndex >= 0)
+				proc.setLanguage(VestaOptions.LANGUAGES[languageIndex]);
 			
 			// formats
 			proc.setDocumentationTEI(getCbDocTEI().getSelection());
@@ -684,8 +791,84 @@ public class Vesta extends org.eclipse.swt.widgets.Composite {
 		}
 		
 	
-		Thread procThread = new Thread(proc);
-		procThread.start();
+		try {
+			return JobExecutor.getInstance().submit(proc);
+		} catch (RejectedExecutionException e) {
+			listener.dispose();
+			MessageBox mb = new MessageBox(getShell());
+			mb.setMessage("Vesta is busy with other runs. Please try again later.");
+			mb.open();
+			return null;
+		}
+	}
+	
+	/**
+	 * Runs again whenever the input file or a file it includes is saved, with
+	 * the options selected at that time. A run waits for the previous one to
+	 * finish and replaces its dialog; the stages whose inputs did not change
+	 * are skipped if "skip unchanged" is selected. Runs on the UI thread.
+	 * @param firstRun the run started with Go
+	 * @param firstListener its listener
+	 */
+	private void startWatching(final Future<?> firstRun, final RunDialogListener firstListener) {
+		final File inputFile = new File(selectedFileName);
+		final Display display = getDisplay();
+		final FileWatcher fileWatcher = new FileWatcher();
+		watcher = fileWatcher;
+		
+		final Runnable onChange = new Runnable(){
+			private Future<?> run = firstRun;
+			private RunDialogListener listener = firstListener;
+			
+			public void run() {
+				try {
+					run.get();
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					// the run reported its failure itself
+				}
+				if(display.isDisposed())
+					return;
+				display.syncExec(new Runnable(){
+					public void run() {
+						if(isDisposed() || watcher != fileWatcher)
+							return;
+						RunDialogListener next = new RunDialogListener();
+						Future<?> nextRun = startRun(next);
+						if(null == nextRun){
+							stopWatching();
+							return;
+						}
+						listener.dispose();
+						listener = next;
+						run = nextRun;
+					}
+				});
+				// the includes may have changed as well
+				fileWatcher.setFiles(IncludeScanner.findFiles(inputFile));
+			}
+		};
+		
+		// large files are searched for includes without blocking the window
+		Thread thread = new Thread(new Runnable(){
+			public void run() {
+				fileWatcher.setFiles(IncludeScanner.findFiles(inputFile));
+				fileWatcher.start(onChange);
+			}
+		}, "vesta-scan");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stops running again on changes. Runs on the UI thread.
+	 */
+	private void stopWatching() {
+		if(null != watcher){
+			watcher.stop();
+			watcher = null;
+		}
 	}
 
 }
@@ -0,0 +1,372 @@
+package org.tei.vesta;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Runs Vesta without a GUI on any number of ODD files in a single JVM.
+ *
+ * <pre>
+ * java -cp vesta.jar org.tei.vesta.VestaBatch -o out [-j 4] [-m manifest] [-w] [options] odd-files ...
+ * </pre>
+ *
+ * Input files may be given as glob patterns (<code>odds/*.odd</code>,
+ * <code>odds/**&#47;*.xml</code>) or listed in a manifest with one file per line,
+ * optionally followed by the schemaSpec to process. Every file gets its own
+ * output directory below the directory given with -o. The options are the ones
+ * of the GUI, see {@link VestaOptions}; flags are switched on with --name and
+ * off with --no-name, all other options take a value (--name value or --name=value).
+ *
+ * With -w the files are processed again whenever they, or a file they include,
+ * are saved, until the process is stopped.
+ */
+public class VestaBatch {
+
+	private File outputRoot;
+	private int jobs = Runtime.getRuntime().availableProcessors();
+	private final List<Job> inputs = new ArrayList<Job>();
+	private final List<String[]> options = new ArrayList<String[]>();
+	private boolean watch;
+
+	private static class Job {
+		File odd;
+		String schemaName;
+		File outputDir;
+		String name;
+		ConsoleListener listener;
+	}
+
+	public static void main(String[] args) {
+		VestaBatch batch = new VestaBatch();
+		try {
+			batch.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+			System.exit(2);
+		}
+		int failed = batch.runAll();
+		if(batch.watch)
+			batch.watch();
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	private static void usage(){
+		System.err.println("usage: VestaBatch -o outputDir [-j jobs] [-m manifest] [-w] [options] files ...");
+		System.err.println("options: --schema name, --language lang, --languages all|l1,l2, --profile name, --formats f1,f2,");
+		System.err.println("         --pattern-prefix prefix, --[no-]rng, --[no-]xsd, --[no-]dtd, --[no-]doc-tei,");
+		System.err.println("         --[no-]compile, --[no-]debug, --[no-]tei-version, --[no-]parameterized-dtd,");
+		System.err.println("         --[no-]incremental, --[no-]all-schemas, --[no-]bundle");
+	}
+
+	private void parseArguments(String[] args) throws IllegalArgumentException{
+		for(int i = 0; i < args.length; i++){
+			String arg = args[i];
+			if(arg.equals("-o") || arg.equals("--output")){
+				outputRoot = new File(value(args, ++i, arg));
+			} else if(arg.equals("-j") || arg.equals("--jobs")){
+				try {
+					jobs = Integer.parseInt(value(args, ++i, arg));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("The number of jobs must be a number.");
+				}
+				if(jobs < 1)
+					throw new IllegalArgumentException("The number of jobs must be at least 1.");
+			} else if(arg.equals("-m") || arg.equals("--manifest")){
+				readManifest(new File(value(args, ++i, arg)));
+			} else if(arg.equals("-w") || arg.equals("--watch")){
+				watch = true;
+			} else if(arg.equals("-h") || arg.equals("--help")){
+				throw new IllegalArgumentException("Vesta batch processing");
+			} else if(arg.startsWith("--")){
+				String name = arg.substring(2);
+				String value = null;
+				if(name.indexOf('=') != -1){
+					value = name.substring(name.indexOf('=') + 1);
+					name = name.substring(0, name.indexOf('='));
+				}
+
+				if(VestaOptions.isFlag(name) && null == value){
+					value = "true";
+				} else if(name.startsWith("no-") && VestaOptions.isFlag(name.substring(3)) && null == value){
+					name = name.substring(3);
+					value = "false";
+				} else if(! VestaOptions.isOption(name)){
+					throw new IllegalArgumentException("Unknown option: " + arg);
+				} else if(null == value){
+					value = value(args, ++i, arg);
+				}
+				options.add(new String[]{name, value});
+			} else {
+				for(File file : expand(arg)){
+					Job job = new Job();
+					job.odd = file;
+					inputs.add(job);
+				}
+			}
+		}
+
+		if(null == outputRoot)
+			throw new IllegalArgumentException("No output directory given.");
+		if(inputs.isEmpty())
+			throw new IllegalArgumentException("No input files given.");
+	}
+
+	private static String value(String[] args, int i, String option){
+		if(i >= args.length)
+			throw new IllegalArgumentException("Option " + option + " expects a value.");
+		return args[i];
+	}
+
+	/**
+	 * Reads a manifest: one input file per line, optionally followed by the
+	 * schemaSpec to process. Empty lines and lines starting with # are ignored.
+	 * Relative paths are resolved against the directory of the manifest.
+	 */
+	private void readManifest(File manifest) throws IllegalArgumentException{
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+			try {
+				String line;
+				while(null != (line = reader.readLine())){
+					line = line.trim();
+					if(line.length() == 0 || line.startsWith("#"))
+						continue;
+
+					String[] parts = line.split("\\s+");
+					File odd = new File(parts[0]);
+					if(! odd.isAbsolute())
+						odd = new File(manifest.getAbsoluteFile().getParentFile(), parts[0]);
+
+					Job job = new Job();
+					job.odd = odd;
+					if(parts.length > 1)
+						job.schemaName = parts[1];
+					inputs.add(job);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not read manifest " + manifest + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Expands a glob pattern. * and ? match within a single path segment, ** matches
+	 * any number of directories. Arguments without wildcards are returned as they are.
+	 */
+	static List<File> expand(String pattern){
+		List<File> files = new ArrayList<File>();
+		String normalized = pattern.replace(File.separatorChar, '/');
+		int wildcard = indexOfWildcard(normalized);
+		if(wildcard == -1){
+			files.add(new File(pattern));
+			return files;
+		}
+
+		int slash = normalized.lastIndexOf('/', wildcard);
+		File base = slash == -1 ? new File(".") : new File(normalized.substring(0, slash + 1));
+		String rest = normalized.substring(slash + 1);
+
+		collect(base, "", Pattern.compile(globToRegex(rest)), rest.indexOf('/') != -1 || rest.indexOf("**") != -1, files);
+		Collections.sort(files);
+		return files;
+	}
+
+	private static int indexOfWildcard(String s){
+		int star = s.indexOf('*');
+		int question = s.indexOf('?');
+		if(star == -1)
+			return question;
+		if(question == -1)
+			return star;
+		return Math.min(star, question);
+	}
+
+	private static void collect(File dir, String relative, Pattern pattern, boolean recurse, List<File> files){
+		File[] children = dir.listFiles();
+		if(null == children)
+			return;
+		for(File child : children){
+			String path = relative + child.getName();
+			if(child.isDirectory()){
+				if(recurse)
+					collect(child, path + "/", pattern, recurse, files);
+			} else if(pattern.matcher(path).matches()){
+				files.add(child);
+			}
+		}
+	}
+
+	private static String globToRegex(String glob){
+		StringBuilder regex = new StringBuilder();
+		for(int i = 0; i < glob.length(); i++){
+			char c = glob.charAt(i);
+			if(c == '*'){
+				if(i + 1 < glob.length() && glob.charAt(i + 1) == '*'){
+					if(i + 2 < glob.length() && glob.charAt(i + 2) == '/'){
+						regex.append("(?:.*/)?");
+						i += 2;
+					} else {
+						regex.append(".*");
+						i++;
+					}
+				} else {
+					regex.append("[^/]*");
+				}
+			} else if(c == '?'){
+				regex.append("[^/]");
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.toString();
+	}
+
+	/**
+	 * Runs all jobs and waits for them to finish.
+	 * @return the number of failed jobs
+	 */
+	private int runAll(){
+		if(! outputRoot.isDirectory() && ! outputRoot.mkdirs()){
+			System.err.println("Could not create output directory " + outputRoot);
+			return inputs.size();
+		}
+
+		// every input gets its own output directory
+		Set<String> names = new HashSet<String>();
+		for(Job job : inputs){
+			String name = job.odd.getName();
+			if(name.indexOf(".") != -1)
+				name = name.substring(0, name.indexOf("."));
+			String unique = name;
+			for(int i = 2; names.contains(unique); i++)
+				unique = name + "-" + i;
+			names.add(unique);
+
+			job.outputDir = new File(outputRoot, unique);
+			job.name = unique;
+			job.listener = new ConsoleListener(unique);
+		}
+
+		// load the configuration before the workers start
+		PropertiesProvider.getInstance();
+
+		// at most one waiting job per thread, the rest are submitted as jobs finish
+		JobExecutor.configure(jobs, jobs);
+		// the executor is not shut down, --watch submits the reruns to it
+		JobExecutor executor = JobExecutor.getInstance();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		try {
+			for(Job job : inputs)
+				futures.add(submit(job));
+			for(Future<?> future : futures)
+				await(future);
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted, " + executor.getCompleted() + " of " + inputs.size() + " files processed.");
+			return inputs.size();
+		}
+
+		int failed = 0;
+		for(Job job : inputs){
+			if(job.listener.hasFailed())
+				failed++;
+		}
+		System.out.println("Processed " + inputs.size() + " files, " + failed + " failed.");
+		return failed;
+	}
+
+	/**
+	 * Processes a file again whenever it or a file it includes was saved. The
+	 * unchanged stages are skipped by the incremental build. The runs are queued
+	 * on the shared {@link JobExecutor} like the first ones. Never returns.
+	 */
+	private void watch(){
+		for(final Job job : inputs){
+			final FileWatcher watcher = new FileWatcher();
+			watcher.setFiles(IncludeScanner.findFiles(job.odd));
+			watcher.start(new Runnable(){
+				public void run() {
+					System.out.println("[" + job.name + "] " + job.odd + " changed, processing again.");
+					job.listener = new ConsoleListener(job.name);
+					try {
+						// wait for the run, so that a file is not processed twice at a time
+						await(submit(job));
+					} catch (InterruptedException e) {
+						return;
+					}
+					// the includes may have changed as well
+					watcher.setFiles(IncludeScanner.findFiles(job.odd));
+				}
+			});
+		}
+		System.out.println("Watching " + inputs.size() + " files for changes, press Ctrl-C to stop.");
+
+		Object forever = new Object();
+		synchronized(forever){
+			while(true){
+				try {
+					forever.wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues a job on the shared executor, waiting for room in the queue.
+	 */
+	private Future<?> submit(final Job job) throws InterruptedException{
+		return JobExecutor.getInstance().submitAndWait(new Runnable(){
+			public void run() {
+				runJob(job);
+			}
+		});
+	}
+
+	private void await(Future<?> future) throws InterruptedException{
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			// runJob reports its errors to the listener
+			e.getCause().printStackTrace();
+		}
+	}
+
+	private void runJob(Job job){
+		VestaProcessor proc = new VestaProcessor(job.listener);
+		proc.setOddFile(job.odd.getPath());
+		try {
+			if(! job.outputDir.isDirectory() && ! job.outputDir.mkdirs())
+				throw new IllegalArgumentException("Could not create output directory " + job.outputDir);
+
+			// a schemaSpec from the manifest wins over --schema
+			List<String[]> jobOptions = new ArrayList<String[]>(options);
+			if(null != job.schemaName)
+				jobOptions.add(new String[]{"schema", job.schemaName});
+			VestaOptions.configure(proc, job.odd, job.outputDir, jobOptions);
+
+			// share the cores between the concurrent jobs
+			proc.setStageThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / jobs));
+		} catch (Exception e) {
+			job.listener.processingFailed(proc, e);
+			return;
+		}
+
+		proc.run();
+	}
+
+}
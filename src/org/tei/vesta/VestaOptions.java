@@ -0,0 +1,240 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Maps named options onto a {@link VestaProcessor}. These are the settings the
+ * GUI offers, under the names used by the command line runner.
+ * 
+ * <ul>
+ * <li>schema: the schemaSpec to process</li>
+ * <li>language: documentation language (en, es, de, fr, it, ja, zh-tw)</li>
+ * <li>rng, xsd, dtd: the schemas to generate</li>
+ * <li>doc-tei: create documentation as TEI</li>
+ * <li>compile, debug, tei-version, parameterized-dtd: advanced odd file options</li>
+ * <li>incremental: skip the stages whose outputs are up to date</li>
+ * <li>all-schemas: generate every schemaSpec of the input</li>
+ * <li>bundle: write all outputs into a single ZIP file instead of the output directory</li>
+ * <li>pattern-prefix: prefix for RELAX NG pattern names</li>
+ * <li>profile: the stylesheet profile</li>
+ * <li>formats: comma separated list of documentation formats</li>
+ * </ul>
+ */
+public class VestaOptions {
+
+	/**
+	 * The documentation languages in the order of the language combo.
+	 */
+	public static final String[] LANGUAGES = new String[]{"en", "es", "de", "fr", "it", "ja", "zh-tw"};
+	
+	private static final List<String> FLAGS = Arrays.asList(new String[]{
+		"rng", "xsd", "dtd", "doc-tei", "compile", "debug", "tei-version", "parameterized-dtd", "incremental", "all-schemas", "bundle" 
+	});
+	
+	private static final List<String> VALUES = Arrays.asList(new String[]{
+		"schema", "language", "languages", "pattern-prefix", "profile", "formats"
+	});
+	
+	private static final long PROFILE_INDEX_WAIT_MILLIS = 10000;
+	
+	/**
+	 * Sets the same defaults the GUI starts with.
+	 * @param proc the processor
+	 */
+	public static void applyDefaults(VestaProcessor proc){
+		proc.setGenerateRNG(true);
+		proc.setGenerateXSD(true);
+		proc.setGenerateDTD(true);
+		proc.setDocumentationTEI(false);
+		proc.setCompile(false);
+		proc.setDebug(false);
+		proc.setUseVersionFromTEI(true);
+		proc.setParameterizedDTD(false);
+		proc.setIncremental(true);
+		proc.setPatternPrefix("tei_");
+		proc.setLanguage(LANGUAGES[0]);
+		proc.setProfile("default");
+		proc.setFormats(new HashSet<String>());
+	}
+	
+	/**
+	 * Prepares a processor for a headless run: sets the defaults, decides like the
+	 * GUI whether the file is processed as ODD and applies the options.
+	 * @param proc the processor
+	 * @param odd the input file
+	 * @param outputDir the output directory, which has to exist
+	 * @param options name and value pairs, applied in order
+	 * @throws Exception if the input could not be read or an option is invalid
+	 */
+	public static void configure(VestaProcessor proc, File odd, File outputDir, List<String[]> options) throws Exception{
+		proc.setOddFile(odd.getPath());
+		applyDefaults(proc);
+		proc.setOutputDir(outputDir.getPath());
+		
+		// an explicitly selected schemaSpec need not be searched for
+		String schemaName = null;
+		for(String[] option : options){
+			if(option[0].equals("schema"))
+				schemaName = option[1];
+		}
+		
+		List<String> idents = null != schemaName ? Collections.singletonList(schemaName) : SchemaSpecScanner.scan(odd);
+		if(! idents.isEmpty()){
+			proc.setUseCompiledODD(true);
+			proc.setSchemaName(idents.get(0));
+		} else {
+			proc.setUseCompiledODD(false);
+			String name = odd.getName();
+			if(name.indexOf(".") != -1)
+				name = name.substring(0, name.indexOf("."));
+			proc.setSchemaName(name);
+		}
+		
+		for(String[] option : options)
+			apply(proc, option[0], option[1]);
+		validateFormats(proc.getProfile(), proc.getFormats());
+	}
+	
+	/**
+	 * Checks the profile and formats among options, e.g. before a job is queued.
+	 * @param options name and value pairs
+	 * @throws IllegalArgumentException if the profile or one of the formats is unknown
+	 */
+	public static void validateFormats(List<String[]> options) throws IllegalArgumentException{
+		String profile = ProfileIndex.DEFAULT_PROFILE;
+		Collection<String> formats = null;
+		for(String[] option : options){
+			if(option[0].equals("profile"))
+				profile = option[1];
+			else if(option[0].equals("formats"))
+				formats = parseFormats(option[1]);
+		}
+		validateFormats(profile, formats);
+	}
+	
+	/**
+	 * Checks that the profile exists and offers the formats. Nothing is checked if
+	 * the profiles could not be indexed within a few seconds.
+	 * @param profile the profile
+	 * @param formats the formats, may be null
+	 * @throws IllegalArgumentException if the profile or one of the formats is unknown
+	 */
+	public static void validateFormats(String profile, Collection<String> formats) throws IllegalArgumentException{
+		ProfileIndex index = ProfileIndex.getInstance();
+		try {
+			if(! index.await(PROFILE_INDEX_WAIT_MILLIS))
+				return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		if(index.getProfiles().isEmpty())
+			return;
+		
+		if(! index.getProfiles().contains(profile))
+			throw new IllegalArgumentException("Unknown profile: " + profile + ". Available: " + index.getProfiles());
+		if(null == formats)
+			return;
+		for(String format : formats){
+			if(! index.getFormats(profile).contains(format))
+				throw new IllegalArgumentException("Profile " + profile + " has no format " + format + ". Available: " + index.getFormats(profile));
+		}
+	}
+	
+	/**
+	 * @param name an option name
+	 * @return true if the option is a boolean switch
+	 */
+	public static boolean isFlag(String name){
+		return FLAGS.contains(name);
+	}
+	
+	/**
+	 * @param name an option name
+	 * @return true if name is one of the known options
+	 */
+	public static boolean isOption(String name){
+		return FLAGS.contains(name) || VALUES.contains(name);
+	}
+	
+	/**
+	 * Applies a single option.
+	 * @param proc the processor
+	 * @param name the option name
+	 * @param value the option value, "true" or "false" for flags
+	 * @throws IllegalArgumentException if the option or its value is unknown
+	 */
+	public static void apply(VestaProcessor proc, String name, String value) throws IllegalArgumentException{
+		if(isFlag(name)){
+			if(! "true".equals(value) && ! "false".equals(value))
+				throw new IllegalArgumentException("Option " + name + " expects true or false, not: " + value);
+			boolean b = "true".equals(value);
+			
+			if(name.equals("rng"))
+				proc.setGenerateRNG(b);
+			else if(name.equals("xsd"))
+				proc.setGenerateXSD(b);
+			else if(name.equals("dtd"))
+				proc.setGenerateDTD(b);
+			else if(name.equals("doc-tei"))
+				proc.setDocumentationTEI(b);
+			else if(name.equals("compile"))
+				proc.setCompile(b);
+			else if(name.equals("debug"))
+				proc.setDebug(b);
+			else if(name.equals("tei-version"))
+				proc.setUseVersionFromTEI(b);
+			else if(name.equals("parameterized-dtd"))
+				proc.setParameterizedDTD(b);
+			else if(name.equals("incremental"))
+				proc.setIncremental(b);
+			else if(name.equals("all-schemas"))
+				proc.setAllSchemas(b);
+			else if(name.equals("bundle"))
+				proc.setBundle(b);
+		} else if(name.equals("schema")){
+			proc.setSchemaName(value);
+		} else if(name.equals("language")){
+			if(! Arrays.asList(LANGUAGES).contains(value))
+				throw new IllegalArgumentException("Unsupported language: " + value);
+			proc.setLanguage(value);
+		} else if(name.equals("languages")){
+			// "all" or a comma separated list of documentation languages
+			List<String> languages = new ArrayList<String>();
+			for(String l : value.equals("all") ? LANGUAGES : value.split(",")){
+				l = l.trim();
+				if(l.length() == 0)
+					continue;
+				if(! Arrays.asList(LANGUAGES).contains(l))
+					throw new IllegalArgumentException("Unsupported language: " + l);
+				if(! languages.contains(l))
+					languages.add(l);
+			}
+			proc.setDocumentationLanguages(languages);
+		} else if(name.equals("pattern-prefix")){
+			proc.setPatternPrefix(value);
+		} else if(name.equals("profile")){
+			proc.setProfile(value);
+		} else if(name.equals("formats")){
+			proc.setFormats(parseFormats(value));
+		} else {
+			throw new IllegalArgumentException("Unknown option: " + name);
+		}
+	}
+	
+	private static Collection<String> parseFormats(String value){
+		Collection<String> formats = new HashSet<String>();
+		for(String f : value.split(",")){
+			if(f.trim().length() > 0)
+				formats.add(f.trim());
+		}
+		return formats;
+	}
+	
+}
@@ -1,14 +1,24 @@
 package org.tei.vesta;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import javax.xml.transform.ErrorListener;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.SourceLocator;
+import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+
+import net.sf.saxon.TransformerFactoryImpl;
 
 import net.sf.saxon.s9api.MessageListener;
 import net.sf.saxon.s9api.QName;
@@ -18,10 +28,6 @@ import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XsltTransformer;
 import net.sf.saxon.trans.XPathException;
 
-import org.eclipse.swt.SWT;
-import org.eclipse.swt.widgets.Display;
-import org.eclipse.swt.widgets.MessageBox;
-import org.eclipse.swt.widgets.Shell;
 import org.tei.tei.DTDGenerationProperties;
 import org.tei.tei.DocXTransformationProperties;
 import org.tei.tei.DocumentationGenerationProperties;
@@ -29,7 +35,6 @@ import org.tei.tei.ODDGenerationProperties;
 import org.tei.tei.RelaxGenerationProperties;
 import org.tei.tei.TEI;
 import org.tei.tei.TransformationProperties;
-import org.tei.utils.FileUtils;
 import org.tei.utils.XMLUtils;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
@@ -38,7 +43,6 @@ import org.xml.sax.SAXParseException;
 import com.thaiopensource.relaxng.edit.SchemaCollection;
 import com.thaiopensource.relaxng.input.InputFailedException;
 import com.thaiopensource.relaxng.input.InputFormat;
-import com.thaiopensource.relaxng.input.parse.sax.SAXParseInputFormat;
 import com.thaiopensource.relaxng.output.LocalOutputDirectory;
 import com.thaiopensource.relaxng.output.OutputDirectory;
 import com.thaiopensource.relaxng.output.OutputFailedException;
@@ -72,20 +76,50 @@ public class VestaProcessor implements Runnable, ErrorListener, ErrorHandler, Me
 	private boolean parameterizedDTD = false;
 	private String patternPrefix = "";
 	
+	private boolean incremental = true;
+	private boolean allSchemas = false;
+	private List<String> documentationLanguages;
+	private boolean bundle = false;
+	
 	
 	private static final String DEFAULT_OUTPUT_ENCODING = "UTF-8";
+	// the stylesheets the html like formats refer to
+	private static final String[] CSS_FILES = new String[]{"tei.css", "odd.css"};
     private static final int DEFAULT_LINE_LENGTH = 72;
     private static final int DEFAULT_INDENT = 2;	
 	
-    private final RunDialog runDialog;
-    private final Shell shell;
+    private final ProcessListener listener;
     private String baseDir;
 	private boolean useCompiledODD;
 	private PropertiesProvider properties;
+	
+	private int stageThreads = Runtime.getRuntime().availableProcessors();
+	private final CancellationToken cancellation;
+	// tells the messages of the schemaSpecs of an all schemas run apart
+	private String infoPrefix = "";
+	// set for the copies of a multi-language run that share a schema name
+	private String variant;
+	// false for the copies of a multi-language run that only generate documentation
+	private boolean generateSchemas = true;
+	// receives the outputs of a bundle run instead of the output directory, shared with the copies
+	private OutputSink sink;
+	// hashes of the files every run depends on, computed once per run and shared with the copies
+	private String sourceHash;
+	private String cssHash;
+	
+	// intermediate results handed from one stage to the next
+	private TEI oddDocument;
+	private XdmNode relaxDocument;
+	private File relaxFile;
+	private TEI teiDocumentation;
     
-	public VestaProcessor(){
-		shell = new Shell(Display.getDefault());
-		runDialog = new RunDialog(shell, SWT.RESIZE | SWT.NO_TRIM | SWT.CLOSE);
+	public VestaProcessor(ProcessListener listener){
+		this(listener, new CancellationToken());
+	}
+	
+	private VestaProcessor(ProcessListener listener, CancellationToken cancellation){
+		this.listener = listener;
+		this.cancellation = cancellation;
 		
 		baseDir = VestaProcessor.class.getProtectionDomain().getCodeSource().getLocation().getPath();
 		baseDir = baseDir.substring(0, baseDir.lastIndexOf(File.separator));
@@ -110,53 +144,59 @@ public class VestaProcessor implements Runnable, ErrorListener, ErrorHandler, Me
 	 * @throws MoreThanOneSchemaSpecException 
 	 */
 	public void run() throws IllegalArgumentException{
-		boolean bErrror = false;
+		// cancelled while waiting in the queue
+		if(cancellation.isCancelled()){
+			listener.processingCancelled(this);
+			return;
+		}
 		
-		Display.getDefault().asyncExec(new Runnable(){
-			public void run() {
-				runDialog.open();
-				runDialog.appendLine("Start processing " + oddFile);
-			}
-			
-		});
+		// everything the job keeps to itself
+		JobContext context = new JobContext(properties, listener, cancellation);
+		JobContext previous = JobContext.setCurrent(context);
+		cancellation.register(Thread.currentThread());
 		
 		try{
-			process();
-		} catch(final Exception e){
-			e.printStackTrace();
-			Display.getDefault().asyncExec( new Runnable() {
-				public void run() {
-					MessageBox mb = new MessageBox(shell);
-					mb.setMessage(e.getMessage());
-					mb.open();
-				}
-			} );
+			listener.processingStarted(this);
 			
-			bErrror = true;
-		}
-		
-		if(!bErrror){
-			Display.getDefault().asyncExec( new Runnable() {
-				public void run(){
-					MessageBox mb = new MessageBox(shell);
-					mb.setMessage("Done");
-					mb.open();
+			try{
+				process();
+			} catch(final Exception e){
+				if(e instanceof CancellationException || cancellation.isCancelled()){
+					listener.processingCancelled(this);
+					return;
 				}
-			});
-		} else {
-			Display.getDefault().asyncExec( new Runnable() {
-				public void run(){
-					MessageBox mb = new MessageBox(shell);
-					mb.setMessage("Errors occured while processing " + oddFile);
-					mb.open();
-				}
-			});
+				e.printStackTrace();
+				listener.processingFailed(this, e);
+				return;
+			}
+			
+			listener.processingFinished(this);
+		} finally {
+			cancellation.unregister(Thread.currentThread());
+			// do not leave the interrupt of a cancellation to the next job of this thread
+			Thread.interrupted();
+			JobContext.setCurrent(previous);
+			context.dispose();
 		}
-		
-		runDialog.setAllowClose(true);
 	}
 	
-	private void process() throws IllegalArgumentException{
+	/**
+	 * Asks the run to stop. The run ends with the stage that is being worked
+	 * on; its partial outputs are not recorded as up to date. A processor that
+	 * is cancelled before it started does nothing.
+	 */
+	public void cancel(){
+		cancellation.cancel();
+	}
+	
+	/**
+	 * @return true if the run was asked to stop
+	 */
+	public boolean isCancelled(){
+		return cancellation.isCancelled();
+	}
+	
+	private void process() throws Exception{
 		// load file
 		File inputFile = new File(oddFile);
 		final File outputDir = new File(this.outputDir);
@@ -165,13 +205,13 @@ public class VestaProcessor implements Runnable, ErrorListener, ErrorHandler, Me
 		if(! outputDir.exists() || ! outputDir.isDirectory())
 			throw new IllegalArgumentException("The selected output directory does not exist or is not a directory.");
 		
-		// set properties provider in TEI
-		TEI.setPropertiesProvider(properties);
+		final RunReport report = new RunReport(schemaName);
 		
 		// read input file in DomDocument
-		TEI tei = null;
+		TEI parsed = null;
+		RunReport.Measurement parsing = report.start("parse");
 		try {
-			tei = new TEI(inputFile);
+			parsed = new TEI(inputFile);
 		} catch(SaxonApiException e){
 			Throwable nested = e.getCause();
 			if(nested instanceof XPathException)
@@ -181,302 +221,702 @@ public class VestaProcessor implements Runnable, ErrorListener, ErrorHandler, Me
 		} catch (Exception e) {
 			throw new IllegalArgumentException("Could not parse input file: " + e.getMessage());
 		}
+		report.finish(parsing, "run");
+		final TEI tei = parsed;
+		cancellation.throwIfCancelled();
 		
-		// generateODD
-		TEI oddDocument = null;
+		hashSources(inputFile);
+		cancellation.throwIfCancelled();
+		
+		if(bundle)
+			sink = new ZipOutputSink(getBundleFile());
+		boolean complete = false;
+		try {
+			if(useCompiledODD && allSchemas)
+				buildAll(tei, inputFile, outputDir, report);
+			else
+				buildSchema(tei, inputFile, outputDir, report);
+			if(null != sink)
+				sink.close();
+			complete = true;
+		} finally {
+			// a failed or cancelled run leaves no partial bundle behind
+			if(null != sink && ! complete){
+				try {
+					sink.close();
+				} catch (IOException e) {
+					// the bundle is deleted anyway
+				}
+				getBundleFile().delete();
+			}
+			sink = null;
+		}
+		
+		//
+		appendInfo("done");
+	}
+	
+	/**
+	 * Hashes the input and the files it includes, the p5subset, the stylesheets
+	 * and the CSS. The stylesheet directory holds thousands of files, so it is
+	 * walked once per run rather than once per schemaSpec and language.
+	 */
+	private void hashSources(File inputFile) throws IOException{
+		File stylesheetDir = new File(jobProperties().getStylesheetDir());
+		File cssDir = new File(jobProperties().getCSSDir());
+		String stylesheetHash = ContentHash.ofDirectory(stylesheetDir);
+		sourceHash = ContentHash.of(
+				ContentHash.ofFiles(IncludeScanner.findFiles(inputFile)),
+				ContentHash.ofFile(new File(jobProperties().getP5Subset())),
+				stylesheetHash);
+		// usually the CSS comes with the stylesheets
+		cssHash = cssDir.getAbsoluteFile().equals(stylesheetDir.getAbsoluteFile()) ? stylesheetHash : ContentHash.ofDirectory(cssDir);
+	}
+	
+	/**
+	 * Generates the outputs of every schemaSpec of the input in one run. The
+	 * schemaSpecs are processed concurrently by copies of this processor that
+	 * share the parsed input, each writing files prefixed with its schema name.
+	 */
+	private void buildAll(final TEI tei, final File inputFile, final File outputDir, RunReport report) throws Exception{
+		List<String> names = SchemaSpecScanner.scan(inputFile, cancellation);
+		if(names.isEmpty())
+			throw new IllegalArgumentException("Could not find a schemaSpec in the input file.");
+		appendInfo("Generate schemas " + names);
+		
+		// the schemas share the threads, each of them still runs its stages concurrently
+		int concurrent = Math.min(names.size(), Math.max(1, stageThreads / 2));
+		StageScheduler scheduler = new StageScheduler(concurrent);
+		scheduler.setCancellationToken(cancellation);
+		scheduler.setReport(report);
+		for(String name : names){
+			final VestaProcessor copy = copyFor(name);
+			copy.stageThreads = Math.max(1, stageThreads / concurrent);
+			final RunReport copyReport = new RunReport(name);
+			scheduler.add(new Stage(name){
+				protected void execute() throws Exception {
+					copy.buildSchema(tei, inputFile, outputDir, copyReport);
+				}
+			});
+		}
+		
+		try {
+			scheduler.run();
+		} finally {
+			storeReport(report, outputDir, "all-schemas");
+		}
+	}
+	
+	/**
+	 * @param name a schemaSpec of the input
+	 * @return a processor with the settings of this one for the schemaSpec. It
+	 * shares the listener, the cancellation and the bundle with this one.
+	 */
+	private VestaProcessor copyFor(String name){
+		VestaProcessor copy = new VestaProcessor(listener, cancellation);
+		copy.oddFile = oddFile;
+		copy.outputDir = outputDir;
+		copy.outputDocDir = outputDocDir;
+		copy.schemaName = name;
+		copy.language = language;
+		copy.profile = profile;
+		copy.formats = formats;
+		copy.generateXSD = generateXSD;
+		copy.generateDTD = generateDTD;
+		copy.generateRNG = generateRNG;
+		copy.documentationTEI = documentationTEI;
+		copy.compile = compile;
+		copy.debug = debug;
+		copy.useVersionFromTEI = useVersionFromTEI;
+		copy.parameterizedDTD = parameterizedDTD;
+		copy.patternPrefix = patternPrefix;
+		copy.incremental = incremental;
+		copy.useCompiledODD = useCompiledODD;
+		copy.properties = properties;
+		copy.documentationLanguages = documentationLanguages;
+		copy.bundle = bundle;
+		copy.sink = sink;
+		copy.sourceHash = sourceHash;
+		copy.cssHash = cssHash;
+		copy.infoPrefix = "[" + name + "] ";
+		return copy;
+	}
+	
+	/**
+	 * Generates the outputs of the selected schemaSpec, with documentation in
+	 * several languages if that was asked for.
+	 */
+	private void buildSchema(TEI tei, File inputFile, File outputDir, RunReport report) throws Exception{
+		boolean generateDocumentation = documentationTEI || null != formats && ! formats.isEmpty();
+		if(useCompiledODD && generateDocumentation && null != documentationLanguages && ! documentationLanguages.isEmpty())
+			buildLanguages(tei, inputFile, outputDir, report);
+		else
+			build(tei, inputFile, outputDir, report);
+	}
+	
+	/**
+	 * Generates the documentation in every documentation language, each into a
+	 * subdirectory of the documentation directory named after the language.
+	 * The languages are processed concurrently by copies of this processor. The
+	 * schemas do not depend on the documentation and are only generated by the
+	 * copy for the selected language, or the first one if it is not among them.
+	 */
+	private void buildLanguages(final TEI tei, final File inputFile, final File outputDir, RunReport report) throws Exception{
+		String primary = documentationLanguages.contains(language) ? language : documentationLanguages.get(0);
+		appendInfo("Generate documentation in " + documentationLanguages);
+		
+		int concurrent = Math.min(documentationLanguages.size(), Math.max(1, stageThreads / 2));
+		StageScheduler scheduler = new StageScheduler(concurrent);
+		scheduler.setCancellationToken(cancellation);
+		scheduler.setReport(report);
+		for(String lang : documentationLanguages){
+			final VestaProcessor copy = copyFor(schemaName);
+			copy.stageThreads = Math.max(1, stageThreads / concurrent);
+			copy.language = lang;
+			copy.outputDocDir = outputDocDir + File.separator + lang;
+			copy.documentationLanguages = null;
+			copy.infoPrefix = infoPrefix + "[" + lang + "] ";
+			if(! lang.equals(primary)){
+				copy.variant = lang;
+				copy.generateSchemas = false;
+			}
+			final RunReport copyReport = new RunReport(copy.getRunName());
+			scheduler.add(new Stage(lang){
+				protected void execute() throws Exception {
+					copy.build(tei, inputFile, outputDir, copyReport);
+				}
+			});
+		}
+		
+		try {
+			scheduler.run();
+		} finally {
+			storeReport(report, outputDir, schemaName + "-all-languages");
+		}
+	}
+	
+	/**
+	 * @return the name the manifest entries and the report of this processor are stored under
+	 */
+	private String getRunName(){
+		return null == variant ? schemaName : schemaName + "-" + variant;
+	}
+	
+	/**
+	 * Generates the outputs of the selected schemaSpec from the parsed input.
+	 */
+	private void build(final TEI tei, File inputFile, final File outputDir, RunReport report) throws Exception{
+		final boolean generateDocumentation = documentationTEI || null != formats && ! formats.isEmpty();
+		
+		// documentation
+		if(useCompiledODD && generateDocumentation){
+			appendInfo("Generate Output");
+			File docDir = new File(outputDocDir);
+			if(null == sink && ! docDir.isDirectory() && docDir.exists())
+				throw new IllegalArgumentException("Could not create directory: " + docDir.getAbsolutePath());
+			if(null == sink && ! docDir.isDirectory() )
+				docDir.mkdirs();
+		}
+		
+		// fingerprint of everything the compiled odd depends on
+		final String base = ContentHash.of(sourceHash,
+				useCompiledODD, schemaName, language, useVersionFromTEI, compile, debug);
+		final String css = cssHash;
+		
+		// a bundle is written from scratch, there is nothing to be up to date with
+		final BuildManifest manifest = null == sink ? new BuildManifest(outputDir, getRunName()) : null;
+		StageScheduler scheduler = new StageScheduler(stageThreads){
+			protected void skipped(Stage stage) {
+				appendInfo("[" + stage.getName() + "] up to date");
+			}
+		};
+		if(null != manifest)
+			scheduler.setManifest(manifest, incremental);
+		scheduler.setCancellationToken(cancellation);
+		scheduler.setReport(report);
+		
+		relaxFile = new File(outputDir + File.separator + schemaName + ".rng");
+		
+		Stage documentation = null;
 		if(useCompiledODD){
-			try {
-				 appendInfo("Create compiled odd");
-				 oddDocument = tei.generateODD(new ODDGenerationProperties(){
-					@Override
-					public String getSchemaName() {
-						return schemaName;
+			// generateODD, unless an earlier run compiled the same inputs
+			final String oddKey = ContentHash.of(base, "odd2odd");
+			final Stage odd = scheduler.add(new Stage("odd2odd"){
+				protected void execute() {
+					CompiledOddCache cache = CompiledOddCache.getInstance();
+					oddDocument = cache.get(oddKey);
+					if(null != oddDocument){
+						appendInfo("Load compiled odd from cache");
+						return;
 					}
 					
-					@Override
-					public boolean isStripped(){
-						return compile;
+					final Diagnostics diagnostics = new Diagnostics(getName());
+					try {
+						 appendInfo("Create compiled odd");
+						 oddDocument = tei.generateODD(new ODDGenerationProperties(){
+							@Override
+							public String getSchemaName() {
+								return schemaName;
+							}
+							
+							@Override
+							public boolean isStripped(){
+								return compile;
+							}
+							
+							@Override
+							public boolean isVerbose(){
+								return debug;
+							}
+							
+							@Override
+							public String getLanguage(){
+								return language;
+							}
+							
+							@Override
+							public boolean isUseVersionFromTEI(){
+								return useVersionFromTEI;
+							}
+							
+							@Override
+							public ErrorListener getErrorListener() {
+								return diagnostics;
+							}
+							
+							@Override
+							public MessageListener getMessageListener() {
+								return diagnostics;
+							} 
+							 
+						 });
+					} catch (Exception e) {
+						throw new IllegalArgumentException("Could not run odd2odd transformation: " + e.getMessage());
 					}
 					
-					@Override
-					public boolean isVerbose(){
-						return debug;
+					try {
+						cache.put(oddKey, oddDocument);
+					} catch (IOException e) {
+						appendInfo("Warning: Could not cache compiled odd: " + e.getMessage());
 					}
-					
-					@Override
-					public String getLanguage(){
-						return language;
-					}
-					
-					@Override
-					public boolean isUseVersionFromTEI(){
-						return useVersionFromTEI;
-					}
-					
-					@Override
-					public ErrorListener getErrorListener() {
-						return VestaProcessor.this;
-					}
-					
-					@Override
-					public MessageListener getMessageListener() {
-						return VestaProcessor.this;
-					} 
-					 
-				 });
-			} catch (Exception e) {
-				throw new IllegalArgumentException("Could not run odd2odd transformation: " + e.getMessage());
-			}
+				}
+			});
 	
 			// store file
-			if(compile || debug){
-				try {
-					oddDocument.storeFile(new File(outputDir + File.separator + schemaName + ".compiled.odd"));
-				} catch (IOException e) {
-					appendInfo("Error: Could not store compiled ODD file: " + e.getMessage());
-				}
+			if(generateSchemas && (compile || debug)){
+				scheduler.add(new Stage("store compiled odd", odd){
+					protected void execute() {
+						try {
+							storeFile(oddDocument, new File(outputDir + File.separator + schemaName + ".compiled.odd"));
+						} catch (IOException e) {
+							appendInfo("Error: Could not store compiled ODD file: " + e.getMessage());
+							fail();
+						}
+					}
+				}.produces(ContentHash.of(base, "compiled odd"), new File(outputDir + File.separator + schemaName + ".compiled.odd")));
 			}
 			
 			
 			
 			// generate Relax
-			XdmNode relaxDocument = null;
-			File relaxFile = null;
-			if(generateRNG || generateXSD){
-				try {
-					appendInfo("Create Relax NG");
-					relaxDocument = oddDocument.generateRelax(new RelaxGenerationProperties(){
-						@Override
-						public String getSchemaName() {
-							return schemaName;
-						}
-						
-						@Override
-						public boolean isVerbose(){
-							return debug;
-						}
-						
-						@Override
-						public String getLanguage(){
-							return language;
-						}
-						
-						@Override
-						public String getPatternPrefix(){
-							return patternPrefix;
-						}
-						
-						@Override
-						public boolean isParameterizedDTD(){
-							return parameterizedDTD;
+			if(generateSchemas && (generateRNG || generateXSD)){
+				final String relaxFingerprint = ContentHash.of(base, patternPrefix, parameterizedDTD);
+				// the .rng is only written if it was asked for, trang reads the tree
+				final boolean storeRelax = generateRNG || debug;
+				Stage relaxStage = new Stage("odd2relax", odd){
+					protected void execute() {
+						final Diagnostics diagnostics = new Diagnostics(getName());
+						try {
+							appendInfo("Create Relax NG");
+							relaxDocument = oddDocument.generateRelax(new RelaxGenerationProperties(){
+								@Override
+								public String getSchemaName() {
+									return schemaName;
+								}
+								
+								@Override
+								public boolean isVerbose(){
+									return debug;
+								}
+								
+								@Override
+								public String getLanguage(){
+									return language;
+								}
+								
+								@Override
+								public String getPatternPrefix(){
+									return patternPrefix;
+								}
+								
+								@Override
+								public boolean isParameterizedDTD(){
+									return parameterizedDTD;
+								}
+								
+								@Override
+								public ErrorListener getErrorListener() {
+									return diagnostics;
+								}
+								
+								@Override
+								public MessageListener getMessageListener() {
+									return diagnostics;
+								} 
+							});
+						} catch (Exception e) {
+							throw new IllegalArgumentException("Could not run odd2relax transformation: " + e.getMessage());		
 						}
 						
-						@Override
-						public ErrorListener getErrorListener() {
-							return VestaProcessor.this;
+						// store file
+						if(storeRelax){
+							try {
+								storeDocument(relaxDocument, relaxFile);
+							} catch (IOException e) {
+								appendInfo("Error: Could not store relaxNG schema: " + e.getMessage());
+								fail();
+							}
 						}
-						
-						@Override
-						public MessageListener getMessageListener() {
-							return VestaProcessor.this;
-						} 
-					});
-				} catch (Exception e) {
-					throw new IllegalArgumentException("Could not run odd2relax transformation: " + e.getMessage());		
-				}
+					}
+				};
+				if(storeRelax)
+					relaxStage.produces(relaxFingerprint, relaxFile);
+				final Stage relax = scheduler.add(relaxStage);
 				
-				// store file
-				relaxFile = new File(outputDir + File.separator + schemaName + ".rng");
-				try {
-					XMLUtils.storeDocument(relaxDocument, relaxFile);
-				} catch (IOException e) {
-					appendInfo("Error: Could not store relaxNG schema: " + e.getMessage());
-				}
+				// run trang: the schema is loaded once for both outputs
+				List<File> trangOutputs = new ArrayList<File>();
+				if(generateRNG)
+					trangOutputs.add(new File(outputDir + File.separator + schemaName + ".rnc"));
+				if(generateXSD)
+					trangOutputs.add(new File(outputDir + File.separator + schemaName + ".xsd"));
+				
+				scheduler.add(new Stage("trang", relax){
+					protected void execute() {
+						Diagnostics diagnostics = new Diagnostics(getName());
+						try {
+							SchemaCollection sc = loadRelax(getRelaxInputFormat(), relaxFile, diagnostics);
+							
+							// generate compact relax
+							if(generateRNG){
+								appendInfo("Create Compact Relax NG");
+								generateRelaxCompact(sc, diagnostics);
+							}
+							
+							// generate xsd, last as it changes the schema collection
+							if(generateXSD){
+								appendInfo("Create XSD");
+								generateXSD(sc, diagnostics);
+							}
+						} catch (Exception e) {
+							throw new IllegalArgumentException("Could not run trang: " + e.getMessage());
+						}
+					}
+				}.produces(ContentHash.of(relaxFingerprint, generateRNG, generateXSD), trangOutputs.toArray(new File[trangOutputs.size()])));
 			}
 	
 			// generate dtd
-			if(generateDTD){
-				try {
-					appendInfo("Create DTD");
-					oddDocument.generateDTD(new DTDGenerationProperties(){
-
-						@Override
-						public File getOutputFile() {
-							return new File(outputDir + File.separator + schemaName + ".dtd");
-						}
-
-						@Override
-						public String getSchemaName() {
-							return schemaName;
-						}
-						
-						@Override
-						public boolean isVerbose(){
-							return debug;
-						}
-						
-						@Override
-						public String getLanguage(){
-							return language;
+			if(generateSchemas && generateDTD){
+				final File dtd = new File(outputDir + File.separator + schemaName + ".dtd");
+				scheduler.add(new Stage("odd2dtd", odd){
+					protected void execute() {
+						final Diagnostics diagnostics = new Diagnostics(getName());
+						try {
+							appendInfo("Create DTD");
+							final File written = spool(dtd);
+							oddDocument.generateDTD(new DTDGenerationProperties(){
+	
+								@Override
+								public File getOutputFile() {
+									return written;
+								}
+	
+								@Override
+								public String getSchemaName() {
+									return schemaName;
+								}
+								
+								@Override
+								public boolean isVerbose(){
+									return debug;
+								}
+								
+								@Override
+								public String getLanguage(){
+									return language;
+								}
+								
+								@Override
+								public boolean isParameterizedDTD(){
+									return parameterizedDTD;
+								}
+								
+								@Override
+								public ErrorListener getErrorListener() {
+									return diagnostics;
+								}
+								
+								@Override
+								public MessageListener getMessageListener() {
+									return diagnostics;
+								} 
+								
+							});
+							publish(dtd, written);
+						} catch (SaxonApiException e) {
+							throw new IllegalArgumentException("Could not run odd2dtd transformation: " + e.getMessage());
+						} catch (IOException e) {
+							throw new IllegalArgumentException("Could not store DTD: " + e.getMessage());
 						}
-						
-						@Override
-						public boolean isParameterizedDTD(){
-							return parameterizedDTD;
+					}
+				}.produces(ContentHash.of(base, parameterizedDTD), dtd));
+			}
+			
+			// create the TEI documentation if it we are supposed to create it or the docx documentation
+			if(generateDocumentation){
+				documentation = scheduler.add(new Stage("documentation", odd){
+					protected void execute() {
+						final Diagnostics diagnostics = new Diagnostics(getName());
+						try {
+							teiDocumentation = oddDocument.generateDocumentation(new DocumentationGenerationProperties(){
+								public ErrorListener getErrorListener() {
+									return diagnostics;
+								}
+		
+								public MessageListener getMessageListener() {
+									return diagnostics;
+								} 
+								
+								public String getLanguage(){
+									return language;
+								}
+							});
+						} catch (SaxonApiException e) {
+							appendInfo("Error: Could not create TEI documentation: " + e.getMessage());
+							fail();
 						}
-						
-						@Override
-						public ErrorListener getErrorListener() {
-							return VestaProcessor.this;
+					}
+				});
+				
+				// store file
+				if(documentationTEI){
+					scheduler.add(new Stage("store documentation", documentation){
+						protected void execute() {
+							appendInfo("Generate Documentation (TEI)");
+							// the documentation stage reported its error
+							if(null == teiDocumentation){
+								fail();
+								return;
+							}
+							try {
+								storeFile(teiDocumentation, new File(outputDocDir + File.separator + schemaName + ".xml"));
+							} catch (IOException e) {
+								appendInfo("Error: Could not store TEI documentation: " + e.getMessage());
+								fail();
+							}
 						}
-						
-						@Override
-						public MessageListener getMessageListener() {
-							return VestaProcessor.this;
-						} 
-						
-					});
-				} catch (SaxonApiException e) {
-					throw new IllegalArgumentException("Could not run odd2dtd transformation: " + e.getMessage());
+					}.produces(ContentHash.of(base, "documentation"), new File(outputDocDir + File.separator + schemaName + ".xml")));
 				}
 			}
 			
-			// run trang
-			try {
-				// generate compact relax
-				if(generateRNG){
-					appendInfo("Create Compact Relax NG");
-					generateRelaxCompact(relaxFile);
-				}
-				// generate xsd
-				if(generateXSD){
-					appendInfo("Create XSD");
-					generateXSD(relaxFile);
+			if(null != formats){
+				for(final String format : formats){
+					if(! format.toLowerCase().equals("docx")){
+						scheduler.add(new Stage(format, odd){
+							protected void execute() {
+								appendInfo("Generate Documentation (" + format + ")");
+								if(! transformTo(oddDocument, format, new Diagnostics(getName())))
+									fail();
+							}
+						}.produces(ContentHash.of(base, profile, format), getFormatOutputs(format)));
+					}
 				}
-			} catch (Exception e) {
-				throw new IllegalArgumentException("Could not run trang: " + e.getMessage());
 			}
-			
-			// free memory
-			relaxDocument = null;
-			
-			// clean up?
-			if(! debug ){
-				if(! generateXSD && null != relaxFile){
-					relaxFile.delete();
+		} else if(null != formats){
+			for(final String format : formats){
+				if(! format.toLowerCase().equals("docx")){
+					scheduler.add(new Stage(format){
+						protected void execute() {
+							appendInfo("Generate " + format + " file");
+							if(! transformTo(tei, format, new Diagnostics(getName())))
+								fail();
+						}
+					}.produces(ContentHash.of(base, profile, format), getFormatOutputs(format)));
 				}
 			}
 		}
 		
-		// documentation
-		if(useCompiledODD && (documentationTEI || null != formats && ! formats.isEmpty())){
-			appendInfo("Generate Output");
-			File docDir = new File(outputDocDir);
-			if(! docDir.isDirectory() && docDir.exists())
-				throw new IllegalArgumentException("Could not create directory: " + docDir.getAbsolutePath());
-			if(! docDir.isDirectory() )
-				docDir.mkdir();
+		// the stylesheets of the html like formats, copied once per directory
+		if(null != formats){
+			for(String format : formats){
+				if(! format.toLowerCase().equals("docx")){
+					final File cssDir = new File(jobProperties().getCSSDir());
+					final File assetDir = new File(useCompiledODD ? outputDocDir : this.outputDir);
+					scheduler.add(new Stage("assets"){
+						protected void execute() throws IOException {
+							if(null == sink){
+								AssetCopier.copy(cssDir, assetDir, CSS_FILES);
+								return;
+							}
+							// the schemas of an all schemas run share the directory
+							synchronized(sink){
+								for(String name : CSS_FILES){
+									String path = getOutputPath(new File(assetDir, name));
+									if(! sink.contains(path))
+										sink.add(path, new File(cssDir, name));
+								}
+							}
+						}
+					}.produces(css, new File(assetDir, CSS_FILES[0]), new File(assetDir, CSS_FILES[1])));
+					break;
+				}
+			}
 		}
 		
-		
-		TEI teiDocumentation = null;
-		if(useCompiledODD){
-			// create the TEI documentation if it we are supposed to create it or the docx documentation
-			if(documentationTEI || null != formats && ! formats.isEmpty()){
-				try {
-					teiDocumentation = oddDocument.generateDocumentation(new DocumentationGenerationProperties(){
-						public ErrorListener getErrorListener() {
-							return VestaProcessor.this;
-						}
-
-						public MessageListener getMessageListener() {
-							return VestaProcessor.this;
-						} 
-						
-						public String getLanguage(){
-							return language;
+		if(null != formats){
+			for(String format : formats){
+				if(format.toLowerCase().equals("docx")){
+					final Stage[] dependencies = null != documentation ? new Stage[]{documentation} : new Stage[0];
+					scheduler.add(new Stage("docx", dependencies){
+						protected void execute() {
+							if(useCompiledODD){
+								appendInfo("Generate Documentation (docx)");
+								if(null == teiDocumentation || ! transformToDocX(teiDocumentation))
+									fail();
+							} else {
+								appendInfo("Generate docx file from: " + oddFile);
+								if(! transformToDocX(tei))
+									fail();
+							}
 						}
-					});
-				} catch (SaxonApiException e) {
-					appendInfo("Error: Could not create TEI documentation: " + e.getMessage());
+					}.produces(ContentHash.of(base, profile, "docx"), getFormatOutputs("docx")));
+					break;
 				}
 			}
+		}
+		
+		try {
+			scheduler.run();
+		} finally {
+			// free memory
+			oddDocument = null;
+			relaxDocument = null;
+			teiDocumentation = null;
 			
-			// store file
-			if(documentationTEI){
-				appendInfo("Generate Documentation (TEI)");
-				try {
-					teiDocumentation.storeFile(new File(outputDocDir + File.separator + schemaName + ".xml"));
-				} catch (IOException e) {
-					appendInfo("Error: Could not store TEI documentation: " + e.getMessage());
-				}
+			try {
+				if(null != manifest)
+					manifest.store();
+			} catch (IOException e) {
+				appendInfo("Warning: Could not store build manifest: " + e.getMessage());
 			}
 			
-			for(String format : formats){
-				if(! format.toLowerCase().equals("docx")){
-					appendInfo("Generate Documentation (" + format + ")");
-					transformTo(oddDocument, format);
-				}
-			}
-		} else{
-			for(String format : formats){
-				if(! format.toLowerCase().equals("docx")){
-					appendInfo("Generate " + format + " file");
-					transformTo(tei, format);
-				}
+			storeReport(report, outputDir, getRunName());
+		}
+	}
+	
+	private void storeReport(RunReport report, File outputDir, String name){
+		report.close();
+		try {
+			OutputStream out = openOutput(new File(outputDir, name + ".vesta-report.json"));
+			try {
+				report.write(out);
+			} finally {
+				out.close();
 			}
+		} catch (IOException e) {
+			appendInfo("Warning: Could not store run report: " + e.getMessage());
 		}
+		for(String line : report.getSummary())
+			appendInfo(line);
+	}
+	
+	/**
+	 * Attributes errors, warnings and xsl:messages to the stage that produced them.
+	 */
+	private class Diagnostics implements ErrorListener, ErrorHandler, MessageListener {
 		
+		private final String prefix;
 		
-		
-		for(String format : formats){
-			if(format.toLowerCase().equals("docx")){
-				if(useCompiledODD){
-					appendInfo("Generate Documentation (docx)");
-					transformToDocX(teiDocumentation);
-				} else {
-					appendInfo("Generate docx file from: " + inputFile);
-					transformToDocX(tei);
-				}
-				break;
-			}
+		// every callback checks for a cancellation, so that a long
+		// transformation or translation stops at its next message
+		Diagnostics(String stage){
+			this.prefix = "[" + stage + "] ";
+		}
+
+		public void error(TransformerException exception) throws TransformerException {
+			cancellation.throwIfCancelled();
+			appendInfo(prefix + "Error: " + exception.getMessage());
+		}
+
+		public void fatalError(TransformerException exception) throws TransformerException {
+			cancellation.throwIfCancelled();
+			appendInfo(prefix + "Fatal Error: " + exception.getMessage());
+			throw exception;
+		}
+
+		public void warning(TransformerException exception) throws TransformerException {
+			cancellation.throwIfCancelled();
+			appendInfo(prefix + "Warning: " + exception.getMessage());
+		}
+
+		public void error(SAXParseException exception) throws SAXException {
+			cancellation.throwIfCancelled();
+			appendInfo(prefix + "Error: " + exception.getMessage());
+		}
+
+		public void fatalError(SAXParseException exception) throws SAXException {
+			cancellation.throwIfCancelled();
+			appendInfo(prefix + "Fatal Error: " + exception.getMessage());
+			throw exception;
+		}
+
+		public void warning(SAXParseException exception) throws SAXException {
+			cancellation.throwIfCancelled();
+			appendInfo(prefix + "Warning: " + exception.getMessage());
+		}
+
+		public void message(XdmNode content, boolean terminate, SourceLocator locator) {
+			cancellation.throwIfCancelled();
+			appendInfo(prefix + "Message: " + content.getStringValue());
 		}
 		
-		
-		//
-		appendInfo("done");
 	}
 	
 
 	private void appendInfo(final String text) {
-		if(! runDialog.getParent().isDisposed()){
-			Display.getDefault().asyncExec( new Runnable() {
-				public void run() {
-					runDialog.appendLine(text);
-				}
-			} );
-		}
+		listener.info(infoPrefix + text);
 	}
 	
 	
-	private void transformTo(TEI doc, final String format){
+	/**
+	 * @param format a documentation format
+	 * @return the files created for the format, without the CSS of the assets stage
+	 */
+	private File[] getFormatOutputs(String format){
+		String dir = useCompiledODD ? outputDocDir : outputDir;
+		return new File[]{new File(dir + File.separator + schemaName + "." + format)};
+	}
+	
+	/**
+	 * @return false if the file could not be created. The error is reported.
+	 */
+	private boolean transformTo(TEI doc, final String format, final Diagnostics diagnostics){
+		File output = getFormatOutputs(format)[0];
 		try{
+			final File written = spool(output);
 			doc.transformTo(new TransformationProperties(){
 				@Override
 				public ErrorListener getErrorListener() {
-					return VestaProcessor.this;
+					return diagnostics;
 				}
 				
 				@Override
 				public MessageListener getMessageListener() {
-					return VestaProcessor.this;
+					return diagnostics;
 				} 
 				
 				@Override
 				public File getOutputFile() {
-					if(useCompiledODD)
-						return new File(outputDocDir + File.separator + schemaName + "." + format);
-					return new File(outputDir + File.separator + schemaName + "." + format);
+					return written;
 				}
 				
 				@Override
@@ -514,34 +954,30 @@ public class VestaProcessor implements Runnable, ErrorListener, ErrorHandler, Me
 				}
 
 			});
-
-			// copy css
-			if(useCompiledODD){
-				FileUtils.copyFile(new File(PropertiesProvider.getInstance().getCSSDir() + File.separator + "tei.css"), new File( outputDocDir + File.separator + "tei.css") );
-				FileUtils.copyFile(new File(PropertiesProvider.getInstance().getCSSDir() + File.separator + "odd.css"), new File( outputDocDir + File.separator + "odd.css") );
-			} else {
-				FileUtils.copyFile(new File(PropertiesProvider.getInstance().getCSSDir() + File.separator + "tei.css"), new File( outputDir + File.separator + "tei.css") );
-				FileUtils.copyFile(new File(PropertiesProvider.getInstance().getCSSDir() + File.separator + "odd.css"), new File( outputDir + File.separator + "odd.css") );
-			}
+			publish(output, written);
+			return true;
 		} catch (Exception e) {
 			appendInfo("Error: Could not create " + format + " file : " + e.getMessage());
+			return false;
 		}
 	}
 	
-	private void transformToDocX(TEI doc){
+	/**
+	 * @return false if the file could not be created. The error is reported.
+	 */
+	private boolean transformToDocX(TEI doc){
+		File output = getFormatOutputs("docx")[0];
 		try {
+			final File written = spool(output);
 			doc.transformToDocX(new DocXTransformationProperties(){
 
 				@Override
 				public File getOutputFile() {
-					if(useCompiledODD)
-						return new File(outputDocDir + File.separator + schemaName + ".docx");
-					return new File(outputDir + File.separator + schemaName + ".docx");
-
+					return written;
 				}
 
 				public String docx_pp_getDocXTemplateFile() {
-					return properties.getStylesheetDir() + File.separator + "profiles" + File.separator +  VestaProcessor.this.getProfile() + File.separator + "docx" + File.separator +  "template.docx";
+					return jobProperties().getStylesheetDir() + File.separator + "profiles" + File.separator +  VestaProcessor.this.getProfile() + File.separator + "docx" + File.separator +  "template.docx";
 				}
 
 				public String docx_pp_getStylesheetCheckDocx() {
@@ -557,7 +993,7 @@ public class VestaProcessor implements Runnable, ErrorListener, ErrorHandler, Me
 				}
 
 				public String docx_pp_getStylesheetTEI2Docx() {
-					return properties.getStylesheetDir() + File.separator + "profiles" + File.separator +  VestaProcessor.this.getProfile() + File.separator + "docx" + File.separator +  "to.xsl";
+					return jobProperties().getStylesheetDir() + File.separator + "profiles" + File.separator +  VestaProcessor.this.getProfile() + File.separator + "docx" + File.separator +  "to.xsl";
 				}
 
 				public String docx_pp_getTempDir() {
@@ -565,50 +1001,165 @@ public class VestaProcessor implements Runnable, ErrorListener, ErrorHandler, Me
 				}
 				
 			});
+			publish(output, written);
+			return true;
 		} catch (Exception e) {
 			appendInfo("Error: Could not create docx file: " + e.getMessage());
+			return false;
 		}
 	}
 
 
 	
+	/**
+	 * @return the input format trang reads the RELAX NG schema with: the tree
+	 * created by odd2relax if it ran, else the .rng file it stored before
+	 */
+	private InputFormat getRelaxInputFormat(){
+		if(null != relaxDocument)
+			return new XdmInputFormat(relaxDocument, UriOrFile.toUri(relaxFile.getAbsolutePath()));
+		return new CatalogInputFormat();
+	}
+	
+	/**
+	 * Loads and simplifies a RELAX NG schema. The collection can be written
+	 * in several formats, but XSD output changes it and has to come last.
+	 */
+	private SchemaCollection loadRelax(InputFormat inFormat, File input, ErrorHandler errorHandler) throws InputFailedException, InvalidParamsException, IOException, SAXException{
+		String[] inputParamArray = new String[]{};
+		return inFormat.load(UriOrFile.toUri(input.getAbsolutePath()), inputParamArray, "rng", errorHandler);
+	}
+	
 	public void generateRelaxCompact(File input) throws InputFailedException, InvalidParamsException, IOException, SAXException, OutputFailedException{
-		InputFormat inFormat = new SAXParseInputFormat();
+		generateRelaxCompact(loadRelax(new CatalogInputFormat(), input, this), this);
+	}
+	
+	private void generateRelaxCompact(SchemaCollection sc, ErrorHandler errorHandler) throws InvalidParamsException, IOException, SAXException, OutputFailedException{
 		OutputFormat of = new RncOutputFormat();
-		String[] inputParamArray = new String[]{};
 		String[] outputParamArray = new String[]{};
-		SchemaCollection sc =  inFormat.load(UriOrFile.toUri(input.getAbsolutePath()), inputParamArray, "rnc", this);
-		OutputDirectory od = new LocalOutputDirectory( 
-				sc.getMainUri(),
-				new File(outputDir + File.separator + schemaName + ".rnc"),
-				"rnc",
-				DEFAULT_OUTPUT_ENCODING,
-                DEFAULT_LINE_LENGTH,
-                DEFAULT_INDENT
-        );
-		of.output(sc, od, outputParamArray, "rng", this);
+		OutputDirectory od = createOutputDirectory(sc, "rnc");
+		of.output(sc, od, outputParamArray, "rng", errorHandler);
 	}
 	
 	public void generateXSD(File input) throws InputFailedException, InvalidParamsException, IOException, SAXException, OutputFailedException{
-		InputFormat inFormat = new SAXParseInputFormat();
+		generateXSD(loadRelax(new CatalogInputFormat(), input, this), this);
+	}
+	
+	private void generateXSD(SchemaCollection sc, ErrorHandler errorHandler) throws InvalidParamsException, IOException, SAXException, OutputFailedException{
 		OutputFormat of = new XsdOutputFormat();
 		
-		String[] inputParamArray = new String[]{};
 		String[] outputParamArray = new String[]{"disable-abstract-elements"};
-		SchemaCollection sc =  inFormat.load(UriOrFile.toUri(input.getAbsolutePath()), inputParamArray, "xsd", this);
 		
-		OutputDirectory od = new LocalOutputDirectory( 
+		OutputDirectory od = createOutputDirectory(sc, "xsd");
+		
+		of.output(sc, od, outputParamArray, "rng", errorHandler);
+	}
+	
+
+	/**
+	 * @param sc the schema trang writes
+	 * @param extension the extension of the output
+	 * @return where trang writes the schema to: the output directory or the bundle
+	 */
+	private OutputDirectory createOutputDirectory(SchemaCollection sc, String extension){
+		File output = new File(outputDir + File.separator + schemaName + "." + extension);
+		if(null != sink)
+			return new SinkOutputDirectory(sink, sc.getMainUri(), getOutputPath(output), extension,
+					DEFAULT_OUTPUT_ENCODING, DEFAULT_LINE_LENGTH, DEFAULT_INDENT);
+		return new LocalOutputDirectory( 
 				sc.getMainUri(),
-				new File(outputDir + File.separator + schemaName + ".xsd"),
-				"xsd",
+				output,
+				extension,
 				DEFAULT_OUTPUT_ENCODING,
                 DEFAULT_LINE_LENGTH,
                 DEFAULT_INDENT
         );
-		
-		of.output(sc, od, outputParamArray, "rng", this);
 	}
 	
+	/**
+	 * @param output a file of the output directory
+	 * @return the path of the file relative to the output directory, with / as separator
+	 */
+	private String getOutputPath(File output){
+		String root = new File(outputDir).getAbsolutePath() + File.separator;
+		String path = output.getAbsolutePath();
+		path = path.startsWith(root) ? path.substring(root.length()) : output.getName();
+		return path.replace(File.separatorChar, '/');
+	}
+	
+	/**
+	 * @param output a file of the output directory
+	 * @return a stream to write the file to, in the output directory or the bundle
+	 */
+	private OutputStream openOutput(File output) throws IOException{
+		if(null != sink)
+			return sink.open(getOutputPath(output));
+		return new FileOutputStream(output);
+	}
+	
+	/**
+	 * @return the configuration of the job being run, see {@link JobContext}
+	 */
+	private PropertiesProvider jobProperties(){
+		JobContext context = JobContext.current();
+		return null != context ? context.getProperties() : properties;
+	}
+	
+	/**
+	 * @param output a file of the output directory
+	 * @return the file a library has to write the output to: the output itself,
+	 * or for a bundle a temporary file that {@link #publish(File, File)} adds
+	 */
+	private File spool(File output) throws IOException{
+		if(null == sink)
+			return output;
+		JobContext context = JobContext.current();
+		File dir = null != context ? context.getTempDir() : new File(properties.getTempDir());
+		return File.createTempFile("vesta", "-" + output.getName(), dir);
+	}
+	
+	/**
+	 * Adds an output a library wrote to the file returned by {@link #spool(File)}
+	 * to the bundle and deletes the temporary file.
+	 */
+	private void publish(File output, File written) throws IOException{
+		if(null == sink)
+			return;
+		try {
+			// a library that failed may not have written anything
+			if(written.length() > 0)
+				sink.add(getOutputPath(output), written);
+		} finally {
+			written.delete();
+		}
+	}
+	
+	private void storeFile(TEI doc, File output) throws IOException{
+		File written = spool(output);
+		doc.storeFile(written);
+		publish(output, written);
+	}
+	
+	/**
+	 * Stores a tree, straight into the bundle if there is one.
+	 */
+	private void storeDocument(XdmNode document, File output) throws IOException{
+		if(null == sink){
+			XMLUtils.storeDocument(document, output);
+			return;
+		}
+		OutputStream out = sink.open(getOutputPath(output));
+		try {
+			Transformer identity = new TransformerFactoryImpl(document.getUnderlyingNode().getConfiguration()).newTransformer();
+			identity.setOutputProperty(OutputKeys.INDENT, "yes");
+			identity.setOutputProperty(OutputKeys.ENCODING, DEFAULT_OUTPUT_ENCODING);
+			identity.transform(document.getUnderlyingNode(), new StreamResult(out));
+		} catch (TransformerException e) {
+			throw new IOException("Could not serialize " + output.getName() + ": " + e.getMessage());
+		} finally {
+			out.close();
+		}
+	}
 
 	public String getOddFile() {
 		return oddFile;
@@ -746,6 +1297,80 @@ public class VestaProcessor implements Runnable, ErrorListener, ErrorHandler, Me
 		this.useCompiledODD = useCompiledODD;
 	}
 	
+	
+	public boolean isAllSchemas() {
+		return allSchemas;
+	}
+
+	/**
+	 * @param allSchemas true to generate every schemaSpec of the input instead of
+	 * only the one set with {@link #setSchemaName(String)}
+	 */
+	public void setAllSchemas(boolean allSchemas) {
+		this.allSchemas = allSchemas;
+	}
+	
+	public List<String> getDocumentationLanguages() {
+		return documentationLanguages;
+	}
+
+	/**
+	 * @param documentationLanguages the languages to generate the documentation
+	 * in, each into a subdirectory of the documentation directory. null or empty
+	 * for only the language set with {@link #setLanguage(String)}.
+	 */
+	public void setDocumentationLanguages(List<String> documentationLanguages) {
+		this.documentationLanguages = documentationLanguages;
+	}
+	
+	public boolean isBundle() {
+		return bundle;
+	}
+
+	/**
+	 * @param bundle true to write all outputs into a single ZIP file in the
+	 * output directory, see {@link #getBundleFile()}. A bundle is always
+	 * generated from scratch.
+	 */
+	public void setBundle(boolean bundle) {
+		this.bundle = bundle;
+	}
+	
+	/**
+	 * @return the ZIP file of a bundle run, named after the input file
+	 */
+	public File getBundleFile() {
+		String name = new File(oddFile).getName();
+		if(name.indexOf(".") > 0)
+			name = name.substring(0, name.indexOf("."));
+		return new File(outputDir, name + ".zip");
+	}
+	
+	public boolean isIncremental() {
+		return incremental;
+	}
+	
+	
+	/**
+	 * @param incremental false to run all stages even if their outputs are up to date
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	
+	public int getStageThreads() {
+		return stageThreads;
+	}
+	
+	
+	/**
+	 * @param stageThreads the number of pipeline stages that may run at the same time
+	 */
+	public void setStageThreads(int stageThreads) {
+		this.stageThreads = stageThreads;
+	}
+	
 
 	
 	
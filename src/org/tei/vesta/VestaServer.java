@@ -0,0 +1,644 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs Vesta as a long running local server that takes jobs over HTTP. The
+ * JVM, the configuration and the classes of Saxon and Trang are loaded once
+ * for all requests instead of once per run.
+ *
+ * <pre>
+ * java -cp vesta.jar org.tei.vesta.VestaServer [-p 8090] [-b 127.0.0.1] [-d workdir] [-j jobs] [-q queue] [-k minutes]
+ * </pre>
+ *
+ * <ul>
+ * <li><code>POST /jobs?name=file.odd&amp;xsd=true&amp;formats=html</code> with the input
+ * file as request body starts a job. The query takes the options of
+ * {@link VestaOptions}. The answer is 201 with the job status and its URL in the
+ * Location header. If all workers are busy and the queue is full the answer is
+ * 429 and the job should be submitted again later.</li>
+ * <li><code>GET /jobs</code> returns the load of the server: running and queued
+ * jobs and the time jobs waited for a worker.</li>
+ * <li><code>GET /jobs/{id}</code> returns the status of a job as JSON. With
+ * <code>?wait=seconds</code> the request blocks until the job is done or the time
+ * is up. At most half of the server.threads requests wait at a time, further
+ * ones are answered at once.</li>
+ * <li><code>GET /jobs/{id}/log</code> returns the last log.max.lines messages of
+ * the job as text.</li>
+ * <li><code>GET /jobs/{id}/files/{path}</code> downloads a file the job created. The
+ * status lists the paths of all of them. A job submitted with <code>bundle=true</code>
+ * creates a single ZIP file named after the input.</li>
+ * <li><code>DELETE /jobs/{id}</code> cancels a queued or running job and removes it
+ * with its files. A running job stops at its next stage or message; if it did
+ * not stop within a few seconds the answer is 202 and the job is removed once
+ * it expired.</li>
+ * </ul>
+ *
+ * Finished jobs and their files are removed after the given number of minutes.
+ */
+public class VestaServer {
+
+	private static final int MAX_INPUT_SIZE = 64 * 1024 * 1024;
+	private static final int MAX_WAIT_SECONDS = 600;
+	private static final int CANCEL_WAIT_SECONDS = 10;
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+
+	private final File workDir;
+	private final long keepMillis;
+	private final JobExecutor executor;
+	private final Map<String, Job> jobs = new LinkedHashMap<String, Job>();
+	private final int threads;
+	// requests that block for a job, so that they cannot take all threads
+	private final Semaphore waiting;
+	private final int logMaxLines;
+
+	/**
+	 * A submitted input file and the state of its processing.
+	 */
+	private static class Job implements ProcessListener {
+
+		enum Status { queued, running, finished, failed, cancelled }
+
+		final String id;
+		final File dir;
+		final File input;
+		final File outputDir;
+		final List<String[]> options;
+
+		private Status status = Status.queued;
+		private String error;
+		private long doneAt;
+		private VestaProcessor proc;
+		// the last maxLines messages
+		private final LinkedList<String> log = new LinkedList<String>();
+		private final int maxLines;
+		private int dropped;
+
+		Job(String id, File dir, String name, List<String[]> options, int maxLines){
+			this.id = id;
+			this.dir = dir;
+			this.input = new File(dir, name);
+			this.outputDir = new File(dir, "output");
+			this.options = options;
+			this.maxLines = Math.max(1, maxLines);
+		}
+
+		public synchronized void processingStarted(VestaProcessor proc) {
+			status = Status.running;
+		}
+
+		public synchronized void info(String text) {
+			log.add(text);
+			if(log.size() > maxLines){
+				log.removeFirst();
+				dropped++;
+			}
+		}
+
+		public synchronized void processingFinished(VestaProcessor proc) {
+			status = Status.finished;
+			doneAt = System.currentTimeMillis();
+			notifyAll();
+		}
+
+		public synchronized void processingFailed(VestaProcessor proc, Exception e) {
+			status = Status.failed;
+			error = null != e.getMessage() ? e.getMessage() : e.toString();
+			doneAt = System.currentTimeMillis();
+			notifyAll();
+		}
+
+		public synchronized void processingCancelled(VestaProcessor proc) {
+			if(status == Status.cancelled)
+				return;
+			status = Status.cancelled;
+			doneAt = System.currentTimeMillis();
+			notifyAll();
+		}
+
+		synchronized boolean isDone(){
+			return status == Status.finished || status == Status.failed || status == Status.cancelled;
+		}
+
+		/**
+		 * Hands the processor to the job, unless the job was cancelled while queued.
+		 * @return false if the job must not be run
+		 */
+		synchronized boolean attach(VestaProcessor proc){
+			if(isDone())
+				return false;
+			this.proc = proc;
+			return true;
+		}
+
+		/**
+		 * Cancels the job. A queued job is done at once, a running one once its
+		 * processor stopped.
+		 */
+		synchronized void cancel(){
+			if(status == Status.queued && null == proc)
+				processingCancelled(null);
+			else if(null != proc)
+				proc.cancel();
+		}
+
+		synchronized void await(long millis) throws InterruptedException{
+			long until = System.currentTimeMillis() + millis;
+			long left;
+			while(! isDone() && (left = until - System.currentTimeMillis()) > 0)
+				wait(left);
+		}
+
+		synchronized String getLog(){
+			StringBuilder text = new StringBuilder();
+			if(dropped > 0)
+				text.append("[").append(dropped).append(" earlier messages dropped]\n");
+			for(String line : log)
+				text.append(line).append('\n');
+			return text.toString();
+		}
+
+		synchronized String toJSON(){
+			StringBuilder json = new StringBuilder();
+			json.append("{\"id\":").append(quote(id));
+			json.append(",\"status\":").append(quote(status.name()));
+			if(null != error)
+				json.append(",\"error\":").append(quote(error));
+			json.append(",\"files\":[");
+			if(isDone()){
+				List<String> files = new ArrayList<String>();
+				listFiles(outputDir, "", files);
+				Collections.sort(files);
+				for(int i = 0; i < files.size(); i++){
+					if(i > 0)
+						json.append(',');
+					json.append(quote(files.get(i)));
+				}
+			}
+			json.append("]}");
+			return json.toString();
+		}
+
+		private static void listFiles(File dir, String path, List<String> files){
+			File[] children = dir.listFiles();
+			if(null == children)
+				return;
+			for(File child : children){
+				if(child.getName().startsWith("."))
+					continue;
+				if(child.isDirectory())
+					listFiles(child, path + child.getName() + "/", files);
+				else
+					files.add(path + child.getName());
+			}
+		}
+	}
+
+	/**
+	 * @param workDir the directory the jobs keep their files in
+	 * @param executor the executor the jobs are run on
+	 * @param keepMinutes how long a finished job is kept
+	 */
+	public VestaServer(File workDir, JobExecutor executor, int keepMinutes){
+		this.workDir = workDir;
+		this.keepMillis = keepMinutes * 60L * 1000L;
+		this.executor = executor;
+		PropertiesProvider properties = PropertiesProvider.getInstance();
+		this.threads = Math.max(2, properties.getServerThreads());
+		this.waiting = new Semaphore(threads / 2);
+		this.logMaxLines = properties.getLogMaxLines();
+	}
+
+	public static void main(String[] args) {
+		int port = 8090;
+		String bind = "127.0.0.1";
+		File workDir = new File(System.getProperty("java.io.tmpdir"), "vesta-server");
+		int jobs = PropertiesProvider.getInstance().getJobPoolSize();
+		int queue = PropertiesProvider.getInstance().getJobQueueSize();
+		int keep = 60;
+
+		try {
+			for(int i = 0; i < args.length; i++){
+				String arg = args[i];
+				if(i + 1 >= args.length)
+					throw new IllegalArgumentException("Option " + arg + " expects a value.");
+				if(arg.equals("-p") || arg.equals("--port"))
+					port = Integer.parseInt(args[++i]);
+				else if(arg.equals("-b") || arg.equals("--bind"))
+					bind = args[++i];
+				else if(arg.equals("-d") || arg.equals("--work-dir"))
+					workDir = new File(args[++i]);
+				else if(arg.equals("-j") || arg.equals("--jobs"))
+					jobs = Integer.parseInt(args[++i]);
+				else if(arg.equals("-q") || arg.equals("--queue"))
+					queue = Integer.parseInt(args[++i]);
+				else if(arg.equals("-k") || arg.equals("--keep"))
+					keep = Integer.parseInt(args[++i]);
+				else
+					throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+			if(jobs < 1)
+				throw new IllegalArgumentException("The number of jobs must be at least 1.");
+			if(queue < 0)
+				throw new IllegalArgumentException("The queue size must not be negative.");
+		} catch (NumberFormatException e) {
+			System.err.println("Expected a number: " + e.getMessage());
+			usage();
+			System.exit(2);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+			System.exit(2);
+		}
+
+		if(! workDir.isDirectory() && ! workDir.mkdirs()){
+			System.err.println("Could not create work directory " + workDir);
+			System.exit(1);
+		}
+
+		try {
+			// -j and -q default to the properties the shared executor is otherwise sized by
+			JobExecutor.configure(jobs, queue);
+			new VestaServer(workDir, JobExecutor.getInstance(), keep).start(new InetSocketAddress(bind, port));
+			System.out.println("Vesta server listening on http://" + bind + ":" + port + "/jobs");
+		} catch (IOException e) {
+			System.err.println("Could not start server: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static void usage(){
+		System.err.println("usage: VestaServer [-p port] [-b bind address] [-d work dir] [-j jobs] [-q queue size] [-k keep minutes]");
+	}
+
+	/**
+	 * Starts serving requests.
+	 * @param address the address to listen on
+	 * @throws IOException if the server could not be started
+	 */
+	public void start(InetSocketAddress address) throws IOException{
+		// load the configuration and the profiles before the first request
+		PropertiesProvider.getInstance();
+		ProfileIndex.getInstance();
+
+		HttpServer server = HttpServer.create(address, 0);
+		server.createContext("/jobs", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					dispatch(exchange);
+				} catch (IllegalArgumentException e) {
+					sendText(exchange, 400, e.getMessage());
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					sendText(exchange, 500, e.toString());
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		// a fixed number of threads, waiting requests are limited in dispatch
+		server.setExecutor(Executors.newFixedThreadPool(threads, new ThreadFactory(){
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "vesta-http-" + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+		server.start();
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException{
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getRawPath();
+		String[] parts = path.substring(1).split("/", 4);
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+		if(parts.length == 1 || parts.length == 2 && parts[1].length() == 0){
+			if(method.equals("POST"))
+				submit(exchange, query);
+			else if(method.equals("GET"))
+				sendJSON(exchange, 200, getLoad());
+			else
+				sendText(exchange, 405, "Use POST to submit a job.");
+			return;
+		}
+
+		Job job;
+		synchronized(jobs){
+			job = jobs.get(parts[1]);
+		}
+		if(null == job){
+			sendText(exchange, 404, "No such job: " + parts[1]);
+			return;
+		}
+		if(method.equals("DELETE") && parts.length == 2){
+			cancel(exchange, job);
+			return;
+		}
+		if(! method.equals("GET")){
+			sendText(exchange, 405, "Use GET to query a job or DELETE to cancel it.");
+			return;
+		}
+
+		if(parts.length == 2){
+			if(query.containsKey("wait")){
+				int seconds;
+				try {
+					seconds = Math.min(MAX_WAIT_SECONDS, Integer.parseInt(query.get("wait")));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("wait expects a number of seconds.");
+				}
+				// if too many requests wait already, the status is returned at once
+				if(waiting.tryAcquire()){
+					try {
+						job.await(seconds * 1000L);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						waiting.release();
+					}
+				}
+			}
+			sendJSON(exchange, 200, job.toJSON());
+		} else if(parts.length == 3 && parts[2].equals("log")){
+			sendText(exchange, 200, job.getLog());
+		} else if(parts.length == 4 && parts[2].equals("files")){
+			sendFile(exchange, job, URLDecoder.decode(parts[3], "UTF-8"));
+		} else {
+			sendText(exchange, 404, "Not found: " + path);
+		}
+	}
+
+	private void submit(HttpExchange exchange, Map<String, String> query) throws IOException{
+		expire();
+
+		String name = query.containsKey("name") ? new File(query.get("name")).getName() : "input.xml";
+		if(name.length() == 0 || name.equals("output"))
+			throw new IllegalArgumentException("Invalid file name: " + name);
+
+		// validate the options before anything is stored
+		List<String[]> options = new ArrayList<String[]>();
+		for(Map.Entry<String, String> entry : query.entrySet()){
+			if(entry.getKey().equals("name"))
+				continue;
+			if(! VestaOptions.isOption(entry.getKey()))
+				throw new IllegalArgumentException("Unknown option: " + entry.getKey());
+			String value = entry.getValue();
+			if(VestaOptions.isFlag(entry.getKey()) && value.length() == 0)
+				value = "true";
+			options.add(new String[]{entry.getKey(), value});
+		}
+		VestaOptions.validateFormats(options);
+
+		String id = UUID.randomUUID().toString();
+		File dir = new File(workDir, id);
+		final Job job = new Job(id, dir, name, options, logMaxLines);
+		if(! job.outputDir.mkdirs())
+			throw new IOException("Could not create job directory " + dir);
+
+		if(! receive(exchange.getRequestBody(), job.input)){
+			delete(dir);
+			sendText(exchange, 413, "The input file is larger than " + MAX_INPUT_SIZE + " bytes.");
+			return;
+		}
+
+		// known before it runs, so that a request for it never misses it
+		synchronized(jobs){
+			jobs.put(id, job);
+		}
+		try {
+			executor.submit(new Runnable(){
+				public void run() {
+					runJob(job);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			synchronized(jobs){
+				jobs.remove(id);
+			}
+			delete(dir);
+			exchange.getResponseHeaders().set("Retry-After", "10");
+			sendText(exchange, 429, e.getMessage());
+			return;
+		}
+
+		exchange.getResponseHeaders().set("Location", "/jobs/" + id);
+		sendJSON(exchange, 201, job.toJSON());
+	}
+
+	private void cancel(HttpExchange exchange, Job job) throws IOException{
+		job.cancel();
+		try {
+			job.await(CANCEL_WAIT_SECONDS * 1000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(! job.isDone()){
+			sendJSON(exchange, 202, job.toJSON());
+			return;
+		}
+
+		synchronized(jobs){
+			jobs.remove(job.id);
+		}
+		String status = job.toJSON();
+		delete(job.dir);
+		sendJSON(exchange, 200, status);
+	}
+
+	private void runJob(Job job){
+		VestaProcessor proc = new VestaProcessor(job);
+		if(! job.attach(proc))
+			return;
+		try {
+			VestaOptions.configure(proc, job.input, job.outputDir, job.options);
+		} catch (Exception e) {
+			job.processingFailed(proc, e);
+			return;
+		}
+		proc.run();
+	}
+
+	private String getLoad(){
+		return "{\"running\":" + executor.getRunning()
+			+ ",\"queued\":" + executor.getQueueDepth()
+			+ ",\"poolSize\":" + executor.getPoolSize()
+			+ ",\"queueSize\":" + executor.getQueueSize()
+			+ ",\"submitted\":" + executor.getSubmitted()
+			+ ",\"completed\":" + executor.getCompleted()
+			+ ",\"rejected\":" + executor.getRejected()
+			+ ",\"averageWaitMillis\":" + executor.getAverageWaitMillis()
+			+ ",\"maxWaitMillis\":" + executor.getMaxWaitMillis() + "}";
+	}
+
+	/**
+	 * Removes the finished jobs that were kept long enough.
+	 */
+	private void expire(){
+		List<Job> expired = new ArrayList<Job>();
+		long now = System.currentTimeMillis();
+		synchronized(jobs){
+			for(Iterator<Job> it = jobs.values().iterator(); it.hasNext(); ){
+				Job job = it.next();
+				synchronized(job){
+					if(job.isDone() && now - job.doneAt > keepMillis){
+						it.remove();
+						expired.add(job);
+					}
+				}
+			}
+		}
+		for(Job job : expired)
+			delete(job.dir);
+	}
+
+	private static void delete(File file){
+		File[] children = file.listFiles();
+		if(null != children){
+			for(File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+	private static boolean receive(InputStream in, File file) throws IOException{
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			long total = 0;
+			int read;
+			while((read = in.read(buffer)) != -1){
+				total += read;
+				if(total > MAX_INPUT_SIZE)
+					return false;
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			out.close();
+			in.close();
+		}
+		return true;
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException{
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		if(null == query || query.length() == 0)
+			return params;
+		for(String pair : query.split("&")){
+			if(pair.length() == 0)
+				continue;
+			int eq = pair.indexOf('=');
+			String key = URLDecoder.decode(eq == -1 ? pair : pair.substring(0, eq), "UTF-8");
+			String value = eq == -1 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+			params.put(key, value);
+		}
+		return params;
+	}
+
+	/**
+	 * @param dir the output directory of a job
+	 * @param path the path of a file relative to the directory, as requested
+	 * @return the file, null if it does not exist or lies outside the directory
+	 * @throws IOException if the path could not be resolved
+	 */
+	static File resolveFile(File dir, String path) throws IOException{
+		File file = new File(dir, path).getCanonicalFile();
+		if(! file.getPath().startsWith(dir.getCanonicalPath() + File.separator) || ! file.isFile())
+			return null;
+		return file;
+	}
+
+	private static void sendFile(HttpExchange exchange, Job job, String path) throws IOException{
+		File file = resolveFile(job.outputDir, path);
+		if(null == file){
+			sendText(exchange, 404, "No such file: " + path);
+			return;
+		}
+
+		String type = URLConnection.guessContentTypeFromName(file.getName());
+		exchange.getResponseHeaders().set("Content-Type", null != type ? type : "application/octet-stream");
+		exchange.sendResponseHeaders(200, file.length());
+		InputStream in = new FileInputStream(file);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	private static void sendJSON(HttpExchange exchange, int code, String json) throws IOException{
+		send(exchange, code, "application/json; charset=UTF-8", json);
+	}
+
+	private static void sendText(HttpExchange exchange, int code, String text) throws IOException{
+		send(exchange, code, "text/plain; charset=UTF-8", null != text ? text : "");
+	}
+
+	private static void send(HttpExchange exchange, int code, String type, String body) throws IOException{
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the string as JSON string literal
+	 */
+	static String quote(String s){
+		StringBuilder json = new StringBuilder("\"");
+		for(int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+			switch(c){
+			case '"': json.append("\\\""); break;
+			case '\\': json.append("\\\\"); break;
+			case '\n': json.append("\\n"); break;
+			case '\r': json.append("\\r"); break;
+			case '\t': json.append("\\t"); break;
+			default:
+				if(c < 0x20)
+					json.append(String.format("\\u%04x", (int) c));
+				else
+					json.append(c);
+			}
+		}
+		return json.append('"').toString();
+	}
+
+}
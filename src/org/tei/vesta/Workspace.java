@@ -0,0 +1,195 @@
+package org.tei.vesta;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The place the jobs keep their temporary files in, e.g. the parts of a docx
+ * the TEI library unpacks and packs again. Every job gets a directory of its
+ * own, see {@link JobContext#getTempDir()}, which is deleted when the job ends.
+ *
+ * The backend is chosen with the workspace property:
+ * <ul>
+ * <li>disk: the temporary directory of the JVM on a local disk, the default</li>
+ * <li>tmpfs or memory: /dev/shm, a file system kept in memory. The TEI library
+ * only works with files, so this is how a workspace in memory is provided.
+ * If /dev/shm is missing or has less free space than a job may use, the disk
+ * is used instead.</li>
+ * </ul>
+ * The property workspace.dir sets the directory explicitly instead. A
+ * workspace that falls back to the disk warns the jobs that use it.
+ *
+ * The files of a job are limited to workspace.max.mb megabytes. The limit is
+ * not a hard cap: it is checked after each stage, so a stage may use more
+ * while it runs, and fails if it leaves more behind. Directories of jobs that
+ * were not cleaned up, e.g. because the JVM was killed, are removed once they
+ * are a day old.
+ */
+public class Workspace {
+
+	public static final String DISK = "disk";
+	public static final String TMPFS = "tmpfs";
+	public static final String MEMORY = "memory";
+
+	private static final File SHM = new File("/dev/shm");
+	private static final String JOB_PREFIX = "job-";
+	private static final long STALE_MILLIS = 24L * 60 * 60 * 1000;
+
+	private static Workspace instance;
+
+	private final File root;
+	private final long maxBytes;
+	private final String warning;
+
+	/**
+	 * @param root the directory the job directories are created in
+	 * @param maxBytes the size the files of a job may have, 0 for no limit
+	 */
+	public Workspace(File root, long maxBytes){
+		this(root, maxBytes, null);
+	}
+
+	/**
+	 * @param root the directory the job directories are created in
+	 * @param maxBytes the size the files of a job may have, 0 for no limit
+	 * @param warning why the configured backend is not used, null if it is
+	 */
+	private Workspace(File root, long maxBytes, String warning){
+		this.root = root;
+		this.maxBytes = maxBytes;
+		this.warning = warning;
+	}
+
+	/**
+	 * Provides access to the workspace configured in the properties. Job
+	 * directories left behind by earlier runs are removed on first access.
+	 * @return The instance of Workspace.
+	 */
+	public static synchronized Workspace getInstance(){
+		if(null == instance){
+			PropertiesProvider properties = PropertiesProvider.getInstance();
+			long maxBytes = properties.getWorkspaceMaxMegabytes() * 1024L * 1024L;
+			if(null != properties.getWorkspaceDir()){
+				instance = new Workspace(new File(properties.getWorkspaceDir()), maxBytes);
+			} else {
+				String warning = checkBackend(properties.getWorkspace(), maxBytes);
+				instance = new Workspace(getRoot(properties.getWorkspace(), warning), maxBytes, warning);
+			}
+			instance.removeStale();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @param backend disk, tmpfs or memory
+	 * @param maxBytes the size a job may use, which a tmpfs has to offer
+	 * @return why the backend cannot be used, null if it can
+	 */
+	private static String checkBackend(String backend, long maxBytes){
+		if(TMPFS.equals(backend) || MEMORY.equals(backend)){
+			if(SHM.isDirectory() && SHM.canWrite() && SHM.getUsableSpace() >= maxBytes)
+				return null;
+			return SHM + " is not available or too small, the workspace is kept on disk";
+		} else if(! DISK.equals(backend))
+			return "Unknown workspace " + backend + ", the workspace is kept on disk";
+		return null;
+	}
+
+	/**
+	 * @param backend disk, tmpfs or memory
+	 * @param warning why the backend cannot be used, null if it can
+	 * @return the directory the backend keeps job directories in
+	 */
+	private static File getRoot(String backend, String warning){
+		if(null == warning && (TMPFS.equals(backend) || MEMORY.equals(backend)))
+			return new File(SHM, "vesta");
+		return new File(System.getProperty("java.io.tmpdir"), "vesta");
+	}
+
+	/**
+	 * @return the directory the job directories are created in
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the size the files of a job may have, 0 for no limit
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return why the configured backend is not used, null if it is
+	 */
+	public String getWarning() {
+		return warning;
+	}
+
+	/**
+	 * Creates the directory of a job.
+	 * @param id the id of the job
+	 * @return the directory
+	 */
+	public File createJobDir(String id){
+		File dir = new File(root, JOB_PREFIX + id);
+		dir.mkdirs();
+		return dir;
+	}
+
+	/**
+	 * Checks that the files of a job stay within the limit. Called after each
+	 * stage, see {@link JobContext#checkTempDir()}.
+	 * @param dir the directory of the job
+	 * @throws IOException if the files are larger than allowed
+	 */
+	public void checkSize(File dir) throws IOException{
+		if(maxBytes <= 0)
+			return;
+		long size = size(dir);
+		if(size > maxBytes)
+			throw new IOException("The temporary files of the job use " + size / (1024 * 1024)
+					+ " MB, more than the " + maxBytes / (1024 * 1024) + " MB of the workspace.");
+	}
+
+	private void removeStale(){
+		File[] children = root.listFiles();
+		if(null == children)
+			return;
+		long now = System.currentTimeMillis();
+		for(File child : children){
+			if(child.getName().startsWith(JOB_PREFIX) && now - child.lastModified() > STALE_MILLIS)
+				delete(child);
+		}
+	}
+
+	/**
+	 * @param file a file or directory
+	 * @return the size of the file or of all files in the directory
+	 */
+	static long size(File file){
+		File[] children = file.listFiles();
+		if(null == children)
+			return file.length();
+		long size = 0;
+		for(File child : children)
+			size += size(child);
+		return size;
+	}
+
+	/**
+	 * Deletes a file or a directory with everything in it.
+	 * @param file the file
+	 */
+	static void delete(File file){
+		File[] children = file.listFiles();
+		if(null != children){
+			for(File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,101 @@
+package org.tei.vesta;
+
+import java.io.IOException;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
+
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import com.thaiopensource.relaxng.parse.Parseable;
+import com.thaiopensource.relaxng.parse.sax.SAXParseable;
+import com.thaiopensource.xml.sax.XMLReaderCreator;
+
+/**
+ * Lets Trang read a RELAX NG schema that is held in memory as a Saxon tree.
+ * The tree is replayed as SAX events, so it does not have to be serialised and
+ * parsed again.
+ *
+ * The tree is loaded under a system id, which is what Trang reports as the main
+ * URI of the schema and what relative references are resolved against. Schemas
+ * included or referenced by the tree are parsed from disk as usual, through the
+ * {@link CatalogResolver}.
+ *
+ * Like {@link CatalogInputFormat} this targets the parser API of Trang 20081028.
+ */
+public class XdmInputFormat extends CatalogInputFormat {
+
+	private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+	private final XdmNode document;
+	private final String systemId;
+
+	/**
+	 * @param document the RELAX NG schema
+	 * @param systemId the URI the schema is loaded under. Pass the same URI to load().
+	 */
+	public XdmInputFormat(XdmNode document, String systemId){
+		this.document = document;
+		this.systemId = systemId;
+	}
+
+	public Parseable makeParseable(InputSource in, ErrorHandler eh) {
+		final XMLReaderCreator files = CatalogResolver.getInstance().getXMLReaderCreator();
+		return new SAXParseable(new XMLReaderCreator(){
+			public XMLReader createXMLReader() throws SAXException {
+				return new TreeReader(files.createXMLReader());
+			}
+		}, in, eh);
+	}
+
+	/**
+	 * Replays the tree for its system id and parses everything else with the
+	 * wrapped reader.
+	 */
+	private class TreeReader extends XMLFilterImpl {
+
+		private LexicalHandler lexicalHandler;
+
+		TreeReader(XMLReader parent){
+			super(parent);
+		}
+
+		public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+			if(LEXICAL_HANDLER.equals(name))
+				lexicalHandler = (LexicalHandler) value;
+			super.setProperty(name, value);
+		}
+
+		public void parse(InputSource input) throws SAXException, IOException {
+			if(! systemId.equals(input.getSystemId())){
+				super.parse(input);
+				return;
+			}
+
+			SAXResult result = new SAXResult(getContentHandler());
+			if(null != lexicalHandler)
+				result.setLexicalHandler(lexicalHandler);
+			try {
+				Transformer identity = new TransformerFactoryImpl(document.getUnderlyingNode().getConfiguration()).newTransformer();
+				identity.transform(document.asSource(), result);
+			} catch (TransformerException e) {
+				if(e.getException() instanceof SAXException)
+					throw (SAXException) e.getException();
+				throw new SAXException(e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,167 @@
+package org.tei.vesta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the files of a run into a single ZIP stream, so that a bundle of
+ * the results does not have to be zipped from an output directory.
+ *
+ * A ZIP stream takes one entry at a time, but stages write concurrently. A
+ * file opened with {@link #open(String)} is therefore held back until its
+ * stream is closed and only then written as a whole. Up to
+ * {@link #MEMORY_LIMIT} bytes of it are kept in memory, larger files are moved
+ * to a temporary file in the workspace of the job. Files added from disk, such
+ * as the outputs the TEI library can only write to a file, are streamed into
+ * the ZIP directly.
+ */
+public class ZipOutputSink implements OutputSink {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The bytes of an open file that are kept in memory.
+	 */
+	public static final int MEMORY_LIMIT = 1024 * 1024;
+
+	private final ZipOutputStream zip;
+	private final Set<String> names = new HashSet<String>();
+	private boolean closed = false;
+
+	/**
+	 * @param out the stream the ZIP is written to. It is closed with the sink.
+	 */
+	public ZipOutputSink(OutputStream out){
+		this.zip = new ZipOutputStream(out);
+	}
+
+	/**
+	 * @param file the ZIP file to create
+	 * @throws IOException if the file could not be created
+	 */
+	public ZipOutputSink(File file) throws IOException{
+		this(new FileOutputStream(file));
+	}
+
+	public OutputStream open(String path) throws IOException{
+		checkOpen();
+		return new EntryStream(path);
+	}
+
+	public synchronized void add(String path, File file) throws IOException{
+		InputStream in = new FileInputStream(file);
+		try {
+			putEntry(path);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for(int read; -1 != (read = in.read(buffer)); )
+				zip.write(buffer, 0, read);
+			zip.closeEntry();
+		} finally {
+			in.close();
+		}
+	}
+
+	public synchronized boolean contains(String path){
+		return names.contains(path);
+	}
+
+	public synchronized void close() throws IOException{
+		if(closed)
+			return;
+		closed = true;
+		zip.close();
+	}
+
+	/**
+	 * Starts an entry. Every path can be written once only, as a ZIP must not
+	 * hold duplicate entries.
+	 */
+	private void putEntry(String path) throws IOException{
+		checkOpen();
+		if(! names.add(path))
+			throw new IOException("Duplicate output " + path);
+		zip.putNextEntry(new ZipEntry(path));
+	}
+
+	private synchronized void checkOpen() throws IOException{
+		if(closed)
+			throw new IOException("The output is closed.");
+	}
+
+	/**
+	 * Holds a file back until it is closed, in memory up to {@link #MEMORY_LIMIT}
+	 * bytes and in a temporary file beyond.
+	 */
+	private class EntryStream extends OutputStream {
+
+		private final String path;
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream(BUFFER_SIZE);
+		private File spill;
+		private OutputStream spillOut;
+		private boolean written = false;
+
+		EntryStream(String path){
+			this.path = path;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(written)
+				throw new IOException("The output " + path + " is closed.");
+			if(null == spillOut && memory.size() + len > MEMORY_LIMIT)
+				spill();
+			if(null != spillOut)
+				spillOut.write(b, off, len);
+			else
+				memory.write(b, off, len);
+		}
+
+		private void spill() throws IOException {
+			JobContext context = JobContext.current();
+			spill = File.createTempFile("vesta", ".zip-entry", null != context ? context.getTempDir() : null);
+			spillOut = new FileOutputStream(spill);
+			memory.writeTo(spillOut);
+			memory = null;
+		}
+
+		public void flush() throws IOException {
+			if(null != spillOut)
+				spillOut.flush();
+		}
+
+		public void close() throws IOException {
+			if(written)
+				return;
+			written = true;
+			if(null == spillOut){
+				synchronized(ZipOutputSink.this){
+					putEntry(path);
+					memory.writeTo(zip);
+					zip.closeEntry();
+				}
+				memory = null;
+				return;
+			}
+			try {
+				spillOut.close();
+				add(path, spill);
+			} finally {
+				spill.delete();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,101 @@
+package org.tei.vesta;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildManifestTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File dir;
+	private File output;
+
+	@Before
+	public void setUp() throws IOException{
+		dir = temp.getRoot();
+		output = new File(dir, "tei.rng");
+		ContentHashTest.write(output, "<grammar/>");
+	}
+
+	private static Stage stage(String name){
+		return new Stage(name){
+			protected void execute(){
+			}
+		};
+	}
+
+	@Test
+	public void recordedStageIsUpToDate() throws IOException{
+		BuildManifest manifest = new BuildManifest(dir, "tei");
+		Stage relax = stage("relax").produces("1", output);
+		assertFalse(manifest.isUpToDate(relax));
+
+		manifest.record(relax);
+		assertTrue(manifest.isUpToDate(relax));
+		manifest.store();
+		assertTrue(new BuildManifest(dir, "tei").isUpToDate(relax));
+	}
+
+	@Test
+	public void changedFingerprintIsNotUpToDate() throws IOException{
+		BuildManifest manifest = new BuildManifest(dir, "tei");
+		manifest.record(stage("relax").produces("1", output));
+		manifest.store();
+
+		assertFalse(new BuildManifest(dir, "tei").isUpToDate(stage("relax").produces("2", output)));
+	}
+
+	@Test
+	public void missingOutputIsNotUpToDate() throws IOException{
+		BuildManifest manifest = new BuildManifest(dir, "tei");
+		Stage relax = stage("relax").produces("1", output);
+		manifest.record(relax);
+		assertTrue(output.delete());
+
+		assertFalse(manifest.isUpToDate(relax));
+	}
+
+	@Test
+	public void stageWithoutOutputsIsNeverUpToDate(){
+		BuildManifest manifest = new BuildManifest(dir, "tei");
+		Stage odd = stage("odd");
+		manifest.record(odd);
+
+		assertFalse(manifest.isUpToDate(odd));
+	}
+
+	@Test
+	public void forgottenStageIsNotUpToDate(){
+		BuildManifest manifest = new BuildManifest(dir, "tei");
+		Stage relax = stage("relax").produces("1", output);
+		manifest.record(relax);
+		manifest.forget(relax);
+
+		assertFalse(manifest.isUpToDate(relax));
+	}
+
+	@Test
+	public void schemasShareTheManifest() throws IOException{
+		Stage relax = stage("relax").produces("1", output);
+		BuildManifest tei = new BuildManifest(dir, "tei");
+		BuildManifest lite = new BuildManifest(dir, "lite");
+		tei.record(relax);
+		lite.record(relax);
+		tei.store();
+		lite.store();
+
+		assertTrue(new BuildManifest(dir, "tei").isUpToDate(relax));
+		assertTrue(new BuildManifest(dir, "lite").isUpToDate(relax));
+		assertFalse(new BuildManifest(dir, "other").isUpToDate(relax));
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.tei.vesta;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tei.tei.TEI;
+
+public class CompiledOddCacheTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File dir;
+	private File source;
+
+	@Before
+	public void setUp() throws IOException{
+		dir = temp.newFolder("odd-cache");
+		source = temp.newFile("source.odd");
+		ContentHashTest.write(source, odd());
+	}
+
+	/**
+	 * @return an ODD of about 1000 bytes
+	 */
+	private static String odd(){
+		StringBuilder text = new StringBuilder();
+		while(text.length() < 900)
+			text.append("padding ");
+		return "<TEI xmlns=\"http://www.tei-c.org/ns/1.0\"><text><body><p>" + text + "</p></body></text></TEI>";
+	}
+
+	private File entry(String key, long lastModified) throws IOException{
+		File file = new File(dir, key + ".compiled.odd");
+		ContentHashTest.write(file, odd());
+		file.setLastModified(lastModified);
+		return file;
+	}
+
+	@Test
+	public void leastRecentlyUsedEntryIsEvicted() throws Exception{
+		long now = System.currentTimeMillis();
+		File first = entry("first", now - 3000000);
+		File second = entry("second", now - 2000000);
+		CompiledOddCache cache = new CompiledOddCache(dir, 2500);
+
+		// reading the first entry makes the second one the entry used longest ago
+		assertNotNull(cache.get("first"));
+		cache.put("third", new TEI(source));
+
+		assertTrue(first.isFile());
+		assertFalse(second.isFile());
+		assertTrue(new File(dir, "third.compiled.odd").isFile());
+		assertNull(cache.get("second"));
+		assertNotNull(cache.get("third"));
+	}
+
+	@Test
+	public void entriesWithinTheLimitAreKept() throws Exception{
+		File first = entry("first", System.currentTimeMillis() - 3000000);
+		CompiledOddCache cache = new CompiledOddCache(dir, 10000);
+		cache.put("second", new TEI(source));
+
+		assertTrue(first.isFile());
+		assertTrue(new File(dir, "second.compiled.odd").isFile());
+	}
+
+	@Test
+	public void otherFilesAreNotEvicted() throws Exception{
+		long now = System.currentTimeMillis();
+		File other = new File(dir, "notes.txt");
+		ContentHashTest.write(other, odd());
+		other.setLastModified(now - 3000000);
+		File first = entry("first", now - 2000000);
+		CompiledOddCache cache = new CompiledOddCache(dir, 2500);
+		cache.put("second", new TEI(source));
+
+		assertTrue(other.isFile());
+		assertFalse(first.isFile());
+		assertTrue(new File(dir, "second.compiled.odd").isFile());
+	}
+
+	@Test
+	public void disabledCacheStoresNothing() throws Exception{
+		CompiledOddCache cache = new CompiledOddCache(dir, 0);
+		assertFalse(cache.isEnabled());
+		cache.put("first", new TEI(source));
+
+		assertFalse(new File(dir, "first.compiled.odd").exists());
+		assertNull(cache.get("first"));
+	}
+
+}
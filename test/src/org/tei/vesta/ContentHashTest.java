@@ -0,0 +1,76 @@
+package org.tei.vesta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentHashTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	static void write(File file, String content) throws IOException{
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	@Test
+	public void fileHashFollowsContent() throws IOException{
+		File file = temp.newFile("a.xml");
+		write(file, "<a/>");
+		file.setLastModified(1000000000000L);
+		String first = ContentHash.ofFile(file);
+		assertEquals(first, ContentHash.ofFile(file));
+
+		write(file, "<b/>");
+		file.setLastModified(1000000002000L);
+		assertFalse(first.equals(ContentHash.ofFile(file)));
+
+		write(file, "<a/>");
+		file.setLastModified(1000000004000L);
+		assertEquals(first, ContentHash.ofFile(file));
+	}
+
+	@Test
+	public void missingFilesAreHashed() throws IOException{
+		File existing = temp.newFile("a.xml");
+		write(existing, "<a/>");
+		File missing = new File(temp.getRoot(), "b.xml");
+
+		String before = ContentHash.ofFiles(Arrays.asList(existing, missing));
+		assertEquals(before, ContentHash.ofFiles(Arrays.asList(existing, missing)));
+
+		write(missing, "<b/>");
+		assertFalse(before.equals(ContentHash.ofFiles(Arrays.asList(existing, missing))));
+	}
+
+	@Test
+	public void directoryHashCoversNewFiles() throws IOException{
+		File dir = temp.newFolder("css");
+		write(new File(dir, "a.css"), "a {}");
+		String before = ContentHash.ofDirectory(dir);
+		assertEquals(before, ContentHash.ofDirectory(dir));
+
+		write(new File(dir, "b.css"), "b {}");
+		assertFalse(before.equals(ContentHash.ofDirectory(dir)));
+	}
+
+	@Test
+	public void partsAreSeparated(){
+		assertFalse(ContentHash.of("ab", "c").equals(ContentHash.of("a", "bc")));
+		assertEquals(ContentHash.of("a", true, 1), ContentHash.of("a", true, 1));
+	}
+
+}
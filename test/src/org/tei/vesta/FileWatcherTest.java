@@ -0,0 +1,92 @@
+package org.tei.vesta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileWatcherTest {
+
+	private static final long POLL = 20;
+	private static final long DEBOUNCE = 300;
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private final FileWatcher watcher = new FileWatcher(POLL, DEBOUNCE);
+	private final AtomicInteger calls = new AtomicInteger();
+
+	private final Runnable counter = new Runnable(){
+		public void run() {
+			calls.incrementAndGet();
+		}
+	};
+
+	@After
+	public void tearDown(){
+		watcher.stop();
+	}
+
+	/**
+	 * Waits until the watcher called back or the time is over.
+	 */
+	private void awaitCalls(int expected, long millis) throws InterruptedException{
+		long end = System.currentTimeMillis() + millis;
+		while(calls.get() < expected && System.currentTimeMillis() < end)
+			Thread.sleep(POLL);
+	}
+
+	@Test
+	public void burstOfChangesCallsBackOnce() throws Exception{
+		File file = temp.newFile("main.odd");
+		watcher.setFiles(Arrays.asList(file));
+		watcher.start(counter);
+
+		// each write changes the length, so the change is seen within a second
+		StringBuilder content = new StringBuilder();
+		for(int i = 0; i < 5; i++){
+			content.append("x");
+			ContentHashTest.write(file, content.toString());
+			Thread.sleep(DEBOUNCE / 5);
+		}
+		assertEquals(0, calls.get());
+
+		awaitCalls(1, 5000);
+		Thread.sleep(2 * DEBOUNCE);
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void createdFileCallsBack() throws Exception{
+		File file = new File(temp.getRoot(), "include.xml");
+		watcher.setFiles(Arrays.asList(file));
+		watcher.start(counter);
+		ContentHashTest.write(file, "<a/>");
+
+		awaitCalls(1, 5000);
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void stoppedWatcherDoesNotCallBack() throws Exception{
+		File file = temp.newFile("main.odd");
+		watcher.setFiles(Arrays.asList(file));
+		watcher.start(counter);
+		assertTrue(watcher.isRunning());
+		watcher.stop();
+		assertFalse(watcher.isRunning());
+
+		ContentHashTest.write(file, "<a/>");
+		Thread.sleep(2 * DEBOUNCE);
+		assertEquals(0, calls.get());
+	}
+
+}
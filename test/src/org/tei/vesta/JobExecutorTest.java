@@ -0,0 +1,105 @@
+package org.tei.vesta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JobExecutorTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final CountDownLatch started = new CountDownLatch(1);
+	private JobExecutor executor;
+
+	/**
+	 * A job that blocks until the test releases it.
+	 */
+	private final Runnable blocking = new Runnable(){
+		public void run() {
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	};
+
+	private final Runnable noop = new Runnable(){
+		public void run() {
+		}
+	};
+
+	@After
+	public void tearDown(){
+		release.countDown();
+		if(null != executor)
+			executor.shutdown();
+	}
+
+	@Test
+	public void fullQueueRejects() throws Exception{
+		executor = new JobExecutor(1, 1);
+		Future<?> running = executor.submit(blocking);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		Future<?> queued = executor.submit(noop);
+		assertEquals(1, executor.getQueueDepth());
+
+		try {
+			executor.submit(noop);
+			fail();
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertEquals(1, executor.getRejected());
+		assertEquals(2, executor.getSubmitted());
+
+		release.countDown();
+		running.get(10, TimeUnit.SECONDS);
+		queued.get(10, TimeUnit.SECONDS);
+		// the slots are free again
+		executor.submit(noop).get(10, TimeUnit.SECONDS);
+		assertEquals(3, executor.getCompleted());
+		assertEquals(1, executor.getRejected());
+	}
+
+	@Test
+	public void submitAndWaitBlocksInsteadOfRejecting() throws Exception{
+		executor = new JobExecutor(1, 0);
+		executor.submit(blocking);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Thread waiting = new Thread(new Runnable(){
+			public void run() {
+				try {
+					executor.submitAndWait(noop);
+					submitted.countDown();
+				} catch (InterruptedException e) {
+					// the test fails on the latch
+				}
+			}
+		});
+		waiting.setDaemon(true);
+		waiting.start();
+		assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertTrue(submitted.await(10, TimeUnit.SECONDS));
+		assertEquals(0, executor.getRejected());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void poolNeedsAThread(){
+		new JobExecutor(0, 1);
+	}
+
+}
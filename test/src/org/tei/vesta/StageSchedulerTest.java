@@ -0,0 +1,247 @@
+package org.tei.vesta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StageSchedulerTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> skipped = Collections.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * Records the order in which the stages ran.
+	 */
+	private class RecordingStage extends Stage {
+
+		RecordingStage(String name, Stage... dependencies){
+			super(name, dependencies);
+		}
+
+		protected void execute() throws Exception {
+			executed.add(getName());
+		}
+
+	}
+
+	private StageScheduler scheduler(int threads){
+		return new StageScheduler(threads){
+			protected void skipped(Stage stage){
+				skipped.add(stage.getName());
+			}
+		};
+	}
+
+	@Test
+	public void dependenciesRunFirst() throws Exception{
+		StageScheduler scheduler = scheduler(4);
+		Stage odd = scheduler.add(new RecordingStage("odd"));
+		Stage relax = scheduler.add(new RecordingStage("relax", odd));
+		Stage xsd = scheduler.add(new RecordingStage("xsd", relax));
+		scheduler.add(new RecordingStage("dtd", odd));
+		scheduler.add(new RecordingStage("doc", xsd, odd));
+		scheduler.run();
+
+		assertEquals(5, executed.size());
+		assertEquals("odd", executed.get(0));
+		assertTrue(executed.indexOf("relax") < executed.indexOf("xsd"));
+		assertTrue(executed.indexOf("xsd") < executed.indexOf("doc"));
+	}
+
+	@Test
+	public void independentStagesRunConcurrently() throws Exception{
+		// each stage waits for the other, so they only finish side by side
+		final CountDownLatch started = new CountDownLatch(2);
+		StageScheduler scheduler = scheduler(2);
+		for(String name : new String[]{"dtd", "xsd"}){
+			scheduler.add(new RecordingStage(name){
+				protected void execute() throws Exception {
+					started.countDown();
+					if(! started.await(10, TimeUnit.SECONDS))
+						throw new IllegalStateException("The stages did not run concurrently.");
+					super.execute();
+				}
+			});
+		}
+		scheduler.run();
+
+		assertEquals(2, executed.size());
+	}
+
+	@Test
+	public void failureStopsDependents() throws Exception{
+		final IOException error = new IOException("odd2odd failed");
+		StageScheduler scheduler = scheduler(2);
+		Stage odd = scheduler.add(new RecordingStage("odd"){
+			protected void execute() throws Exception {
+				throw error;
+			}
+		});
+		scheduler.add(new RecordingStage("relax", odd));
+		try {
+			scheduler.run();
+			fail();
+		} catch (IOException e) {
+			assertSame(error, e);
+		}
+
+		assertTrue(executed.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownDependencyIsRejected(){
+		scheduler(1).add(new RecordingStage("relax", new RecordingStage("odd")));
+	}
+
+	@Test
+	public void upToDateStagesAreSkipped() throws Exception{
+		File dir = temp.getRoot();
+		File rng = new File(dir, "tei.rng");
+		File xsd = new File(dir, "tei.xsd");
+		ContentHashTest.write(rng, "<grammar/>");
+		ContentHashTest.write(xsd, "<schema/>");
+
+		BuildManifest manifest = new BuildManifest(dir, "tei");
+		StageScheduler first = scheduler(2);
+		first.setManifest(manifest, true);
+		Stage odd = first.add(new RecordingStage("odd"));
+		Stage relax = first.add(new RecordingStage("relax", odd).produces("1", rng));
+		first.add(new RecordingStage("xsd", relax).produces("1", xsd));
+		first.run();
+		assertEquals(3, executed.size());
+
+		// nothing changed: the ODD is only compiled for the skipped stages
+		executed.clear();
+		StageScheduler second = scheduler(2);
+		second.setManifest(manifest, true);
+		odd = second.add(new RecordingStage("odd"));
+		relax = second.add(new RecordingStage("relax", odd).produces("1", rng));
+		second.add(new RecordingStage("xsd", relax).produces("1", xsd));
+		second.add(new RecordingStage("report", relax));
+		second.run();
+		assertTrue(executed.isEmpty());
+		assertEquals(4, skipped.size());
+
+		// a changed XSD stage needs the ODD again, but not the RELAX NG schema
+		skipped.clear();
+		StageScheduler third = scheduler(2);
+		third.setManifest(manifest, true);
+		odd = third.add(new RecordingStage("odd"));
+		relax = third.add(new RecordingStage("relax", odd).produces("1", rng));
+		third.add(new RecordingStage("xsd", relax, odd).produces("2", xsd));
+		third.run();
+		assertEquals(2, executed.size());
+		assertTrue(executed.contains("odd"));
+		assertTrue(executed.contains("xsd"));
+		assertEquals(Collections.singletonList("relax"), skipped);
+	}
+
+	@Test
+	public void failedStageRunsAgain() throws Exception{
+		File html = temp.newFile("tei.html");
+		BuildManifest manifest = new BuildManifest(temp.getRoot(), "tei");
+		StageScheduler first = scheduler(1);
+		first.setManifest(manifest, true);
+		// the error is reported, but an old output is left behind
+		first.add(new RecordingStage("html"){
+			protected void execute() throws Exception {
+				super.execute();
+				fail();
+			}
+		}.produces("1", html));
+		first.run();
+		assertFalse(manifest.isUpToDate(new RecordingStage("html").produces("1", html)));
+
+		executed.clear();
+		StageScheduler second = scheduler(1);
+		second.setManifest(manifest, true);
+		second.add(new RecordingStage("html").produces("1", html));
+		second.run();
+		assertEquals(Collections.singletonList("html"), executed);
+		assertTrue(manifest.isUpToDate(new RecordingStage("html").produces("1", html)));
+	}
+
+	@Test
+	public void manifestIsIgnoredUnlessSkipping() throws Exception{
+		File rng = temp.newFile("tei.rng");
+		BuildManifest manifest = new BuildManifest(temp.getRoot(), "tei");
+		Stage recorded = new RecordingStage("relax").produces("1", rng);
+		manifest.record(recorded);
+
+		StageScheduler scheduler = scheduler(1);
+		scheduler.setManifest(manifest, false);
+		scheduler.add(new RecordingStage("relax").produces("1", rng));
+		scheduler.run();
+
+		assertEquals(Collections.singletonList("relax"), executed);
+		assertFalse(skipped.contains("relax"));
+	}
+
+	@Test
+	public void cancellationWaitsForRunningStages() throws Exception{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CancellationToken token = new CancellationToken();
+		StageScheduler scheduler = scheduler(1);
+		scheduler.setCancellationToken(token);
+		scheduler.add(new RecordingStage("doc"){
+			protected void execute() throws Exception {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					// still writing when the scheduler is interrupted
+					Thread.sleep(200);
+					super.execute();
+				}
+			}
+		});
+		new Thread(new Runnable(){
+			public void run() {
+				try {
+					started.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				token.cancel();
+			}
+		}).start();
+		try {
+			scheduler.run();
+			fail();
+		} catch (CancellationException e) {
+			// expected
+		}
+
+		assertEquals(Collections.singletonList("doc"), executed);
+	}
+
+	@Test
+	public void nestedRegistrationsAreCounted(){
+		CancellationToken token = new CancellationToken();
+		Thread thread = Thread.currentThread();
+		token.register(thread);
+		token.register(thread);
+		token.unregister(thread);
+		token.cancel();
+		assertTrue(Thread.interrupted());
+	}
+
+}
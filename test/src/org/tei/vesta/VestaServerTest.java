@@ -0,0 +1,54 @@
+package org.tei.vesta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VestaServerTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File output;
+
+	@Before
+	public void setUp() throws IOException{
+		output = temp.newFolder("job1");
+		new File(output, "html").mkdir();
+		ContentHashTest.write(new File(output, "tei.rng"), "<grammar/>");
+		ContentHashTest.write(new File(output, "html/index.html"), "<html/>");
+		ContentHashTest.write(temp.newFile("secret.txt"), "secret");
+		// a sibling whose name starts with the name of the output directory
+		ContentHashTest.write(new File(temp.newFolder("job10"), "tei.rng"), "<grammar/>");
+	}
+
+	@Test
+	public void filesOfTheJobAreServed() throws IOException{
+		assertEquals(new File(output, "tei.rng").getCanonicalFile(), VestaServer.resolveFile(output, "tei.rng"));
+		assertEquals(new File(output, "html/index.html").getCanonicalFile(), VestaServer.resolveFile(output, "html/index.html"));
+		assertEquals(new File(output, "tei.rng").getCanonicalFile(), VestaServer.resolveFile(output, "html/../tei.rng"));
+	}
+
+	@Test
+	public void pathsLeavingTheJobAreRefused() throws IOException{
+		assertNull(VestaServer.resolveFile(output, "../secret.txt"));
+		assertNull(VestaServer.resolveFile(output, "html/../../secret.txt"));
+		assertNull(VestaServer.resolveFile(output, "../job10/tei.rng"));
+		assertNull(VestaServer.resolveFile(output, new File(temp.getRoot(), "secret.txt").getAbsolutePath()));
+	}
+
+	@Test
+	public void directoriesAndMissingFilesAreRefused() throws IOException{
+		assertNull(VestaServer.resolveFile(output, "html"));
+		assertNull(VestaServer.resolveFile(output, ""));
+		assertNull(VestaServer.resolveFile(output, "tei.xsd"));
+	}
+
+}